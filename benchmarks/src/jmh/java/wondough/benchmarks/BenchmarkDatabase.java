@@ -0,0 +1,196 @@
+package wondough.benchmarks;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.file.*;
+import java.sql.*;
+
+import com.google.gson.Gson;
+
+import wondough.*;
+
+/**
+* Generates SQLite databases for the benchmarks and sets up the Program
+* singleton which DbConnection relies on.
+*/
+public final class BenchmarkDatabase {
+    /** The number of users the generated rows are spread across. */
+    public static final int USERS = 100;
+
+    /** The salary credited to every user in cents, so that transfers never bounce. */
+    private static final long SALARY = 100000000L;
+
+    private BenchmarkDatabase() {
+
+    }
+
+    /**
+    * Gets the security configuration from security.json.
+    */
+    public static SecurityConfiguration securityConfiguration() {
+        return new Gson().fromJson(
+            "{\"iterations\": \"1000\", \"keySize\": \"124\", \"saltSize\": \"16\"}",
+            SecurityConfiguration.class);
+    }
+
+    /**
+    * Gets a database configuration for a generated database.
+    * @param filename The name of the database file.
+    * @param tokenCacheSize How many access tokens DbConnection may cache.
+    */
+    public static DatabaseConfiguration databaseConfiguration(String filename, int tokenCacheSize) {
+        return new Gson().fromJson(
+            "{\"filename\": \"" + filename.replace("\\", "\\\\") + "\", " +
+            "\"tokenCacheSize\": \"" + tokenCacheSize + "\"}",
+            DatabaseConfiguration.class);
+    }
+
+    /**
+    * Makes a configuration available through Program.getInstance(), as
+    * Program.main would. Program has no public constructor, so this is done
+    * through reflection.
+    * @param security The security configuration.
+    * @param database The database configuration.
+    */
+    public static void install(SecurityConfiguration security, DatabaseConfiguration database) throws ReflectiveOperationException {
+        Constructor<Program> constructor = Program.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Program program = constructor.newInstance();
+
+        set(program, "securityConfiguration", security);
+        set(program, "databaseConfiguration", database);
+
+        Field instance = Program.class.getDeclaredField("program");
+        instance.setAccessible(true);
+        instance.set(null, program);
+    }
+
+    /**
+    * Sets the connection returned by Program.getInstance().getDbConnection().
+    * @param connection The database connection.
+    */
+    public static void install(DbConnection connection) throws ReflectiveOperationException {
+        set(Program.getInstance(), "connection", connection);
+    }
+
+    private static void set(Program program, String name, Object value) throws ReflectiveOperationException {
+        Field field = Program.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(program, value);
+    }
+
+    /**
+    * Creates a database with the original tables, except that amounts are
+    * already stored in cents, and fills it. The rest of the current schema,
+    * such as the token digests, indexes and balance snapshots, is added by
+    * DbConnection when the database is opened. The rows of each table are
+    * spread evenly across the users, so user 0 has rows / USERS
+    * transactions.
+    * @param rows The number of authorised apps and of transactions.
+    * @return The name of the database file.
+    */
+    public static String generate(int rows) throws IOException, SQLException {
+        File file = File.createTempFile("wondough-bench-", ".db");
+        file.deleteOnExit();
+
+        SecurityConfiguration config = securityConfiguration();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE users (id INT, username TEXT, password TEXT, salt TEXT, iterations INT, keySize INT)");
+            stmt.executeUpdate("CREATE TABLE authorised_apps (user int, requestToken TEXT, accessToken TEXT)");
+            stmt.executeUpdate("CREATE TABLE apps (appid INTEGER, name TEXT, PRIMARY KEY(appid))");
+            stmt.executeUpdate("CREATE TABLE transactions (tid INTEGER NOT NULL, uid INTEGER NOT NULL, cents INTEGER NOT NULL DEFAULT 0, description TEXT, PRIMARY KEY(tid))");
+            stmt.executeUpdate("INSERT INTO apps (appid, name) VALUES (1, 'Benchmark')");
+
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement users = connection.prepareStatement(
+                    "INSERT INTO users (id,username,password,salt,iterations,keySize) VALUES (?,?,?,?,?,?)");
+                 PreparedStatement apps = connection.prepareStatement(
+                    "INSERT INTO authorised_apps (user,requestToken,accessToken) VALUES (?,?,?)");
+                 PreparedStatement transactions = connection.prepareStatement(
+                    "INSERT INTO transactions (uid,cents,description) VALUES (?,?,?)")) {
+                String salt = config.generateSalt();
+                String password = config.pbkdf2("password", salt);
+
+                for(int i = 0; i < USERS; i++) {
+                    users.setInt(1, i);
+                    users.setString(2, username(i));
+                    users.setString(3, password);
+                    users.setString(4, salt);
+                    users.setInt(5, config.getIterations());
+                    users.setInt(6, config.getKeySize());
+                    users.addBatch();
+
+                    transactions.setInt(1, i);
+                    transactions.setLong(2, SALARY);
+                    transactions.setString(3, "WONDOUGH SALARY");
+                    transactions.addBatch();
+                }
+
+                for(int i = 0; i < rows; i++) {
+                    apps.setInt(1, i % USERS);
+                    apps.setString(2, config.generateSalt());
+                    apps.setString(3, config.generateSalt());
+                    apps.addBatch();
+
+                    transactions.setInt(1, i % USERS);
+                    transactions.setLong(2, -100);
+                    transactions.setString(3, "EATING AT WARWICK");
+                    transactions.addBatch();
+                }
+
+                users.executeBatch();
+                apps.executeBatch();
+                transactions.executeBatch();
+            }
+
+            connection.commit();
+        }
+
+        return file.getPath();
+    }
+
+    /**
+    * Gets the name of a generated user.
+    * @param id The ID of the user.
+    */
+    public static String username(int id) {
+        return "user" + id + "@wondoughbank.com";
+    }
+
+    /**
+    * Reads the access token digests of all generated apps, which is what
+    * clients present to the API.
+    * @param filename The name of the database file.
+    */
+    public static String[] accessTokens(String filename) throws SQLException {
+        SecurityConfiguration config = securityConfiguration();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + filename);
+             Statement stmt = connection.createStatement()) {
+            ResultSet count = stmt.executeQuery("SELECT COUNT(*) FROM authorised_apps");
+            count.next();
+            String[] tokens = new String[count.getInt(1)];
+
+            ResultSet rs = stmt.executeQuery("SELECT accessToken FROM authorised_apps");
+
+            for(int i = 0; rs.next(); i++) {
+                tokens[i] = config.sha(rs.getString(1));
+            }
+
+            return tokens;
+        }
+    }
+
+    /**
+    * Deletes a generated database and its write-ahead log.
+    * @param filename The name of the database file.
+    */
+    public static void delete(String filename) throws IOException {
+        Files.deleteIfExists(Paths.get(filename));
+        Files.deleteIfExists(Paths.get(filename + "-wal"));
+        Files.deleteIfExists(Paths.get(filename + "-shm"));
+    }
+}
@@ -0,0 +1,105 @@
+package wondough.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.*;
+
+import com.google.gson.Gson;
+
+import wondough.*;
+
+/**
+* Compares the primitives in SecurityConfiguration with the versions which
+* looked up a new MessageDigest, SecretKeyFactory or SecureRandom on every
+* call. Run with the gc profiler to see the allocation rate of each.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CryptoBenchmark {
+    /** The configuration under test, as found in security.json. */
+    private SecurityConfiguration config;
+
+    /** A token of the same length as the ones the server hands out. */
+    private String token;
+    private byte[] tokenBytes;
+
+    private String salt;
+    private byte[] saltBytes;
+    private char[] password;
+
+    @Setup
+    public void setup() {
+        this.config = new Gson().fromJson(
+            "{\"iterations\": \"1000\", \"keySize\": \"124\", \"saltSize\": \"16\"}",
+            SecurityConfiguration.class);
+
+        this.token = this.config.generateSalt();
+        this.tokenBytes = this.token.getBytes(StandardCharsets.UTF_8);
+        this.salt = this.config.generateSalt();
+        this.saltBytes = this.salt.getBytes(StandardCharsets.UTF_8);
+        this.password = "correct horse battery staple".toCharArray();
+    }
+
+    @Benchmark
+    public String shaPerCallInstance() throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-512");
+        md.update(this.token.getBytes());
+        return Base64.getEncoder().encodeToString(md.digest());
+    }
+
+    @Benchmark
+    public String sha() {
+        return this.config.sha(this.token);
+    }
+
+    @Benchmark
+    public byte[] shaBytes() {
+        return this.config.sha(this.tokenBytes);
+    }
+
+    @Benchmark
+    public String pbkdf2PerCallInstance() throws Exception {
+        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
+        PBEKeySpec spec = new PBEKeySpec(new String(this.password).toCharArray(),
+            this.salt.getBytes(), this.config.getIterations(), this.config.getKeySize());
+        return Hex.encodeHexString(skf.generateSecret(spec).getEncoded());
+    }
+
+    @Benchmark
+    public String pbkdf2() {
+        return this.config.pbkdf2(new String(this.password), this.salt);
+    }
+
+    @Benchmark
+    public byte[] pbkdf2Bytes() {
+        return this.config.pbkdf2(this.password, this.saltBytes,
+            this.config.getIterations(), this.config.getKeySize());
+    }
+
+    @Benchmark
+    public String generateSaltPerCallInstance() {
+        SecureRandom random = new SecureRandom();
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt);
+    }
+
+    @Benchmark
+    public String generateSalt() {
+        return this.config.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] generateSaltBytes() {
+        return this.config.generateSaltBytes();
+    }
+}
@@ -0,0 +1,77 @@
+package wondough.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import wondough.*;
+
+/**
+* Measures the DbConnection queries behind every API request against
+* generated databases of different sizes.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DbConnectionBenchmark {
+    /** The number of authorised apps and of transactions in the database. */
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private String filename;
+    private DbConnection connection;
+    private String[] tokens;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.filename = BenchmarkDatabase.generate(this.rows);
+
+        // keep the token cache tiny, so that cycling through all tokens
+        // measures the database rather than the cache
+        DatabaseConfiguration database = BenchmarkDatabase.databaseConfiguration(this.filename, 0);
+        BenchmarkDatabase.install(BenchmarkDatabase.securityConfiguration(), database);
+
+        this.connection = new DbConnection(database);
+        BenchmarkDatabase.install(this.connection);
+
+        this.tokens = BenchmarkDatabase.accessTokens(this.filename);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.connection.close();
+        BenchmarkDatabase.delete(this.filename);
+    }
+
+    @Benchmark
+    public Integer isValidAccessToken() throws Exception {
+        this.next = (this.next + 1) % this.tokens.length;
+        return this.connection.isValidAccessToken(this.tokens[this.next]);
+    }
+
+    @Benchmark
+    public Integer isValidAccessTokenCached() throws Exception {
+        return this.connection.isValidAccessToken(this.tokens[0]);
+    }
+
+    @Benchmark
+    public Integer isValidAccessTokenInvalid() throws Exception {
+        return this.connection.isValidAccessToken("not a token");
+    }
+
+    @Benchmark
+    public Transactions getTransactionsPage() throws Exception {
+        return this.connection.getTransactions(0, null, 100);
+    }
+
+    @Benchmark
+    public Transactions getTransactionsAll() throws Exception {
+        return this.connection.getTransactions(0);
+    }
+
+    @Benchmark
+    public boolean createTransaction() throws Exception {
+        return this.connection.createTransaction(0, 1, "BENCHMARK", 1);
+    }
+}
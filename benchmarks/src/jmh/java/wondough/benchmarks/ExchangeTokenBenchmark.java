@@ -0,0 +1,64 @@
+package wondough.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import wondough.*;
+
+/**
+* Measures exchanging request tokens. Every request token can only be
+* exchanged once, so each iteration exchanges a fresh batch of tokens.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = ExchangeTokenBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = ExchangeTokenBenchmark.BATCH)
+public class ExchangeTokenBenchmark {
+    /** The number of tokens exchanged per iteration. */
+    public static final int BATCH = 1000;
+
+    /** The number of authorised apps and of transactions in the database. */
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private String filename;
+    private DbConnection connection;
+    private String[] requestTokens = new String[BATCH];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.filename = BenchmarkDatabase.generate(this.rows);
+
+        DatabaseConfiguration database = BenchmarkDatabase.databaseConfiguration(this.filename, 0);
+        BenchmarkDatabase.install(BenchmarkDatabase.securityConfiguration(), database);
+
+        this.connection = new DbConnection(database);
+        BenchmarkDatabase.install(this.connection);
+    }
+
+    @Setup(Level.Iteration)
+    public void authorise() throws Exception {
+        SecurityConfiguration config = Program.getInstance().getSecurityConfiguration();
+        WondoughUser user = new WondoughUser(0, BenchmarkDatabase.username(0));
+
+        for(int i = 0; i < BATCH; i++) {
+            this.requestTokens[i] = config.sha(this.connection.createApp(user).getRequestToken());
+        }
+
+        this.next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.connection.close();
+        BenchmarkDatabase.delete(this.filename);
+    }
+
+    @Benchmark
+    public String exchangeToken() throws Exception {
+        return this.connection.exchangeToken(this.requestTokens[this.next++]);
+    }
+}
@@ -0,0 +1,73 @@
+package wondough.benchmarks;
+
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import wondough.*;
+
+/**
+* Measures turning responses into text: transaction pages into JSON and
+* the login page into HTML.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderBenchmark {
+    /** The number of transactions in the rendered page. */
+    @Param({"100", "10000"})
+    public int transactions;
+
+    private Transactions page;
+    private JSONTransformer transformer = new JSONTransformer();
+
+    /** Discards everything written to it. */
+    private OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.page = new Transactions();
+        this.page.setAccountBalance(19151);
+
+        for(int i = 0; i < this.transactions; i++) {
+            Transaction t = new Transaction(this.transactions - i);
+            t.setAmount(i % 2 == 0 ? 9674 : -523);
+            t.setDescription("EATING AT WARWICK");
+            this.page.addTransaction(t);
+        }
+
+        ViewUtil.preloadTemplates();
+    }
+
+    @Benchmark
+    public String renderJSON() {
+        return this.transformer.render(this.page);
+    }
+
+    @Benchmark
+    public void streamJSON() throws Exception {
+        JSONStreamer out = new JSONStreamer(this.sink);
+        out.write(this.page);
+        out.flush();
+    }
+
+    @Benchmark
+    public String renderAuthPage() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("appname", "Benchmark");
+        model.put("target", "http://localhost:8080/oauth");
+        model.put("currentUser", null);
+
+        return ViewUtil.render(model, "/velocity/auth.vm");
+    }
+}
@@ -0,0 +1,124 @@
+package loadgen;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+* Makes plain HTTP requests to the server under test. Connections are kept
+* alive and reused by the JDK as long as every response is read in full.
+*/
+public class Http {
+    /** The result of a request. */
+    public static class Reply {
+        private int status;
+        private String body;
+        private String location;
+
+        private Reply(int status, String body, String location) {
+            this.status = status;
+            this.body = body;
+            this.location = location;
+        }
+
+        /** Gets the HTTP status code. */
+        public int getStatus() {
+            return this.status;
+        }
+
+        /** Gets the response body. */
+        public String getBody() {
+            return this.body;
+        }
+
+        /** Gets the target of a redirect, or null. */
+        public String getLocation() {
+            return this.location;
+        }
+    }
+
+    /** The base URL of the server. */
+    private String base;
+
+    public Http(String base) {
+        this.base = base;
+    }
+
+    /**
+    * Makes a GET request.
+    * @param path The path, without the query string.
+    * @param params The query parameters.
+    */
+    public Reply get(String path, Map<String, String> params) throws IOException {
+        String query = encode(params);
+        HttpURLConnection conn = (HttpURLConnection)new URL(
+            this.base + path + (query.isEmpty() ? "" : "?" + query)).openConnection();
+        return this.send(conn, null);
+    }
+
+    /**
+    * Makes a form-encoded POST request. Redirects are not followed.
+    * @param path The path.
+    * @param params The form fields.
+    */
+    public Reply post(String path, Map<String, String> params) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)new URL(this.base + path).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        return this.send(conn, encode(params).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Reply send(HttpURLConnection conn, byte[] body) throws IOException {
+        conn.setInstanceFollowRedirects(false);
+        conn.setConnectTimeout(10000);
+        conn.setReadTimeout(60000);
+
+        if(body != null) {
+            conn.setFixedLengthStreamingMode(body.length);
+
+            try(OutputStream out = conn.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int status = conn.getResponseCode();
+        InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        // the body is always drained so that the connection can be reused
+        if(in != null) {
+            try(InputStream stream = in) {
+                byte[] chunk = new byte[8192];
+                int read;
+
+                while((read = stream.read(chunk)) != -1) {
+                    buffer.write(chunk, 0, read);
+                }
+            }
+        }
+
+        return new Reply(status, new String(buffer.toByteArray(), StandardCharsets.UTF_8),
+            conn.getHeaderField("Location"));
+    }
+
+    /**
+    * URL-encodes the specified parameters.
+    */
+    private static String encode(Map<String, String> params) throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+
+        for(Map.Entry<String, String> param : params.entrySet()) {
+            if(sb.length() > 0) {
+                sb.append('&');
+            }
+
+            sb.append(URLEncoder.encode(param.getKey(), "UTF-8"));
+            sb.append('=');
+            sb.append(URLEncoder.encode(param.getValue(), "UTF-8"));
+        }
+
+        return sb.toString();
+    }
+}
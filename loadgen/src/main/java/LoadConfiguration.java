@@ -0,0 +1,177 @@
+package loadgen;
+
+import java.util.*;
+
+import wondough.Money;
+
+/**
+* Holds the options for a load test, as parsed from the command line.
+*/
+public class LoadConfiguration {
+    /** The base URL of the server under test. */
+    private String url = "http://localhost:8000";
+
+    /** The number of virtual users, each with its own account and token. */
+    private int users = 50;
+
+    /** Whether requests are issued by the users in turn or at a fixed rate. */
+    private boolean openLoop = false;
+
+    /** The target request rate in open-loop mode, per second. */
+    private int rate = 200;
+
+    /** How long each virtual user waits between requests in closed-loop mode, in milliseconds. */
+    private int think = 0;
+
+    /** How long to run before results are recorded, in seconds. */
+    private int warmup = 10;
+
+    /** How long results are recorded for, in seconds. */
+    private int duration = 60;
+
+    /** The fraction of requests which are transfers rather than statement reads. */
+    private double transfers = 0.2;
+
+    /** The amount moved by each transfer. */
+    private String amount = "0.01";
+
+    /** The file to write the results to as JSON, if any. */
+    private String json;
+
+    /** The database the seed command adds users to. */
+    private String database = "../wondough/wondough.db";
+
+    /** The server's security configuration, used by the seed command to hash passwords. */
+    private String security = "../wondough/security.json";
+
+    /** The password every seeded user is given. */
+    private String password = "loadtest";
+
+    /** The balance every seeded user starts with, in cents. */
+    private long salary = 100000000L;
+
+    /** Gets the base URL of the server under test. */
+    public String getUrl() {
+        return this.url;
+    }
+
+    /** Gets the number of virtual users. */
+    public int getUsers() {
+        return this.users;
+    }
+
+    /** Gets whether requests are issued at a fixed rate. */
+    public boolean isOpenLoop() {
+        return this.openLoop;
+    }
+
+    /** Gets the target request rate in open-loop mode, per second. */
+    public int getRate() {
+        return this.rate;
+    }
+
+    /** Gets the think time in closed-loop mode, in milliseconds. */
+    public int getThink() {
+        return this.think;
+    }
+
+    /** Gets the warm-up time, in seconds. */
+    public int getWarmup() {
+        return this.warmup;
+    }
+
+    /** Gets the measured duration, in seconds. */
+    public int getDuration() {
+        return this.duration;
+    }
+
+    /** Gets the fraction of requests which are transfers. */
+    public double getTransfers() {
+        return this.transfers;
+    }
+
+    /** Gets the amount moved by each transfer. */
+    public String getAmount() {
+        return this.amount;
+    }
+
+    /** Gets the file to write the results to, or null. */
+    public String getJson() {
+        return this.json;
+    }
+
+    /** Gets the database the seed command adds users to. */
+    public String getDatabase() {
+        return this.database;
+    }
+
+    /** Gets the server's security configuration file. */
+    public String getSecurity() {
+        return this.security;
+    }
+
+    /** Gets the password every seeded user is given. */
+    public String getPassword() {
+        return this.password;
+    }
+
+    /** Gets the balance every seeded user starts with, in cents. */
+    public long getSalary() {
+        return this.salary;
+    }
+
+    /**
+    * Gets the name of the specified virtual user's account.
+    * @param index The index of the virtual user.
+    */
+    public static String username(int index) {
+        return "loadtest" + index + "@wondoughbank.com";
+    }
+
+    /**
+    * Parses the options which follow the command on the command line.
+    * @param args The options, as pairs of --name and value.
+    */
+    public static LoadConfiguration fromArgs(String[] args) {
+        LoadConfiguration config = new LoadConfiguration();
+
+        for(int i = 0; i < args.length; i += 2) {
+            if(i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+
+            String value = args[i + 1];
+
+            switch(args[i]) {
+                case "--url": config.url = value; break;
+                case "--users": config.users = Integer.parseInt(value); break;
+                case "--mode":
+                    if(!value.equals("open") && !value.equals("closed")) {
+                        throw new IllegalArgumentException("--mode must be open or closed");
+                    }
+                    config.openLoop = value.equals("open");
+                    break;
+                case "--rate": config.rate = Integer.parseInt(value); break;
+                case "--think": config.think = Integer.parseInt(value); break;
+                case "--warmup": config.warmup = Integer.parseInt(value); break;
+                case "--duration": config.duration = Integer.parseInt(value); break;
+                case "--transfers": config.transfers = Double.parseDouble(value); break;
+                case "--amount": config.amount = value; break;
+                case "--json": config.json = value; break;
+                case "--db": config.database = value; break;
+                case "--security": config.security = value; break;
+                case "--password": config.password = value; break;
+                case "--salary": config.salary = Money.parse(value); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if(config.users < 2) {
+            // transfers need someone to send money to
+            throw new IllegalArgumentException("--users must be at least 2");
+        }
+
+        return config;
+    }
+}
@@ -0,0 +1,173 @@
+package loadgen;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* Drives the virtual users against the server. In closed-loop mode each user
+* makes its next request as soon as the previous one returns (plus the think
+* time), so the load drops when the server slows down. In open-loop mode
+* requests are started at a fixed rate regardless of how fast they complete,
+* and latency is measured from when each request was due, so time spent
+* queueing behind a slow server is counted rather than hidden.
+*/
+public class LoadRunner {
+    /** The routes used to log in. */
+    public static final String[] LOGIN_ROUTES = { "GET /auth", "POST /auth", "POST /exchange" };
+
+    /** The routes used once logged in. */
+    public static final String[] API_ROUTES = { "GET /transactions", "POST /transactions/new" };
+
+    /** The options for the load test. */
+    private LoadConfiguration config;
+
+    /** The statistics for each route, in the order they are used. */
+    private Map<String, RouteStats> stats = new LinkedHashMap<String, RouteStats>();
+
+    /** The virtual users. */
+    private List<VirtualUser> users = new ArrayList<VirtualUser>();
+
+    public LoadRunner(LoadConfiguration config) {
+        this.config = config;
+
+        for(String route : LOGIN_ROUTES) {
+            this.stats.put(route, new RouteStats(route));
+        }
+        for(String route : API_ROUTES) {
+            this.stats.put(route, new RouteStats(route));
+        }
+        for(int i = 0; i < config.getUsers(); i++) {
+            this.users.add(new VirtualUser(config, this.stats, i));
+        }
+    }
+
+    /** Gets the statistics for each route. */
+    public Collection<RouteStats> getStats() {
+        return this.stats.values();
+    }
+
+    /**
+    * Logs every user in, then runs the warm-up and the measurement.
+    */
+    public void run() throws Exception {
+        this.login();
+
+        if(this.config.isOpenLoop()) {
+            this.runOpen();
+        } else {
+            this.runClosed();
+        }
+
+        for(String route : API_ROUTES) {
+            this.stats.get(route).finish(this.config.getDuration());
+        }
+    }
+
+    /**
+    * Logs all users in at once, which is the worst case for password hashing.
+    */
+    private void login() throws Exception {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(this.config.getUsers());
+        List<Future<Void>> logins = new ArrayList<Future<Void>>();
+
+        for(VirtualUser user : this.users) {
+            logins.add(executor.submit(() -> {
+                user.login();
+                return null;
+            }));
+        }
+
+        try {
+            for(Future<Void> login : logins) {
+                try {
+                    login.get();
+                } catch(ExecutionException ex) {
+                    throw (Exception)ex.getCause();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        for(String route : LOGIN_ROUTES) {
+            this.stats.get(route).finish(seconds);
+        }
+    }
+
+    private void runClosed() throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.config.getWarmup() + this.config.getDuration());
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for(VirtualUser user : this.users) {
+            Thread thread = new Thread(() -> {
+                while(System.nanoTime() < end) {
+                    user.step(System.nanoTime());
+
+                    if(this.config.getThink() > 0) {
+                        try {
+                            Thread.sleep(this.config.getThink());
+                        } catch(InterruptedException ex) {
+                            return;
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(this.config.getWarmup()));
+        this.reset();
+
+        for(Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void runOpen() throws InterruptedException {
+        // requests which are due while every thread is busy wait in the
+        // executor's queue, and that wait is included in their latency
+        ExecutorService executor = Executors.newFixedThreadPool(this.config.getUsers());
+        long interval = TimeUnit.SECONDS.toNanos(1) / this.config.getRate();
+        long start = System.nanoTime();
+        long measure = start + TimeUnit.SECONDS.toNanos(this.config.getWarmup());
+        long end = measure + TimeUnit.SECONDS.toNanos(this.config.getDuration());
+        boolean warm = false;
+
+        for(long i = 0; ; i++) {
+            long due = start + i * interval;
+
+            if(due >= end) {
+                break;
+            }
+            if(!warm && due >= measure) {
+                this.reset();
+                warm = true;
+            }
+
+            long wait;
+            while((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            VirtualUser user = this.users.get((int)(i % this.users.size()));
+            executor.execute(() -> user.step(due));
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+    * Discards the API statistics gathered during the warm-up.
+    */
+    private void reset() {
+        for(String route : API_ROUTES) {
+            this.stats.get(route).reset();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package loadgen;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import com.google.gson.*;
+import org.HdrHistogram.Histogram;
+
+/**
+* This class contains the main entry point for the load generator.
+*
+* The server does not have to be reachable from Google: run it with
+* "captchaVerifier": "stub" in security.json so that logins are accepted
+* without a real reCAPTCHA response, and seed the load-test users first.
+*/
+public class Program {
+    /** The percentiles reported for each route. */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    /** The names of the percentiles in the JSON results. */
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p99.9" };
+
+    /**
+    * The main entry point for the load generator.
+    * @param args The command followed by its options.
+    */
+    public static void main(String[] args) throws Exception {
+        if(args.length == 0 || !(args[0].equals("seed") || args[0].equals("run"))) {
+            usage();
+            System.exit(1);
+        }
+
+        LoadConfiguration config;
+
+        try {
+            config = LoadConfiguration.fromArgs(Arrays.copyOfRange(args, 1, args.length));
+        } catch(IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+            System.exit(1);
+            return;
+        }
+
+        if(args[0].equals("seed")) {
+            int created = new Seeder(config).seed();
+            System.out.println("Created " + created + " of " + config.getUsers() + " load-test users.");
+            return;
+        }
+
+        // every virtual user keeps its own connection alive
+        System.setProperty("http.maxConnections", Integer.toString(config.getUsers()));
+
+        LoadRunner runner = new LoadRunner(config);
+        runner.run();
+        report(runner.getStats());
+
+        if(config.getJson() != null) {
+            Files.write(Paths.get(config.getJson()), toJson(config, runner.getStats()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: loadgen seed [--users n] [--db file] [--security file] [--password p] [--salary n]");
+        System.err.println("       loadgen run [--url url] [--users n] [--mode closed|open] [--rate n] [--think ms]");
+        System.err.println("                   [--warmup s] [--duration s] [--transfers fraction] [--amount n] [--json file]");
+    }
+
+    /**
+    * Prints a table with the results for each route; latencies are in milliseconds.
+    */
+    private static void report(Collection<RouteStats> stats) {
+        System.out.printf("%-24s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+            "route", "requests", "errors", "req/s", "p50", "p90", "p99", "p99.9", "max");
+
+        for(RouteStats route : stats) {
+            Histogram histogram = route.getHistogram();
+            System.out.printf("%-24s %9d %7d %9.1f", route.getRoute(), histogram.getTotalCount(),
+                route.getErrors(), route.getThroughput());
+
+            for(double percentile : PERCENTILES) {
+                System.out.printf(" %9.2f", histogram.getValueAtPercentile(percentile) / 1000.0);
+            }
+
+            System.out.printf(" %9.2f%n", histogram.getMaxValue() / 1000.0);
+        }
+    }
+
+    /**
+    * Serialises the options and results, so that runs can be compared.
+    */
+    private static String toJson(LoadConfiguration config, Collection<RouteStats> stats) {
+        JsonObject root = new JsonObject();
+        root.addProperty("mode", config.isOpenLoop() ? "open" : "closed");
+        root.addProperty("users", config.getUsers());
+        root.addProperty("rate", config.getRate());
+        root.addProperty("think", config.getThink());
+        root.addProperty("duration", config.getDuration());
+
+        JsonArray routes = new JsonArray();
+
+        for(RouteStats route : stats) {
+            Histogram histogram = route.getHistogram();
+            JsonObject result = new JsonObject();
+            result.addProperty("route", route.getRoute());
+            result.addProperty("requests", histogram.getTotalCount());
+            result.addProperty("errors", route.getErrors());
+            result.addProperty("throughput", route.getThroughput());
+
+            JsonObject latency = new JsonObject();
+            for(int i = 0; i < PERCENTILES.length; i++) {
+                latency.addProperty(PERCENTILE_NAMES[i], histogram.getValueAtPercentile(PERCENTILES[i]) / 1000.0);
+            }
+            latency.addProperty("max", histogram.getMaxValue() / 1000.0);
+            result.add("latencyMillis", latency);
+
+            routes.add(result);
+        }
+
+        root.add("routes", routes);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(root);
+    }
+}
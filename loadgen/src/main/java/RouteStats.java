@@ -0,0 +1,84 @@
+package loadgen;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.*;
+
+/**
+* Records the latencies and outcomes of the requests made to one route.
+* Recording is lock-free, so many virtual users can share one instance.
+*/
+public class RouteStats {
+    /** The longest latency which can be recorded, in microseconds. */
+    private static final long HIGHEST = TimeUnit.MINUTES.toMicros(10);
+
+    /** The name of the route, e.g. GET /transactions. */
+    private String route;
+
+    /** The latencies of completed requests, in microseconds. */
+    private Recorder recorder = new Recorder(HIGHEST, 3);
+
+    /** The number of requests which failed. */
+    private LongAdder errors = new LongAdder();
+
+    /** The latencies recorded since the last reset. */
+    private Histogram histogram;
+
+    /** How long the latencies were recorded for, in seconds. */
+    private double seconds;
+
+    public RouteStats(String route) {
+        this.route = route;
+    }
+
+    /** Gets the name of the route. */
+    public String getRoute() {
+        return this.route;
+    }
+
+    /**
+    * Records a completed request.
+    * @param nanos How long the request took, in nanoseconds.
+    * @param ok Whether the request succeeded.
+    */
+    public void record(long nanos, boolean ok) {
+        this.recorder.recordValue(Math.min(HIGHEST, TimeUnit.NANOSECONDS.toMicros(nanos)));
+
+        if(!ok) {
+            this.errors.increment();
+        }
+    }
+
+    /**
+    * Discards everything recorded so far, e.g. at the end of the warm-up.
+    */
+    public void reset() {
+        this.recorder.getIntervalHistogram();
+        this.errors.reset();
+    }
+
+    /**
+    * Stops the measurement and keeps what was recorded since the last reset.
+    * @param seconds How long the measurement ran for.
+    */
+    public void finish(double seconds) {
+        this.histogram = this.recorder.getIntervalHistogram();
+        this.seconds = seconds;
+    }
+
+    /** Gets the latencies kept by finish(). */
+    public Histogram getHistogram() {
+        return this.histogram;
+    }
+
+    /** Gets the number of completed requests per second. */
+    public double getThroughput() {
+        return this.seconds > 0 ? this.histogram.getTotalCount() / this.seconds : 0;
+    }
+
+    /** Gets the number of requests which failed. */
+    public long getErrors() {
+        return this.errors.sum();
+    }
+}
@@ -0,0 +1,148 @@
+package loadgen;
+
+import java.sql.*;
+
+import wondough.SecurityConfiguration;
+
+/**
+* Adds the accounts used by the virtual users to the server's database.
+* Passwords are hashed with the server's own security configuration, so the
+* seeded users log in through the normal flow.
+*/
+public class Seeder {
+    /** The options for the load test. */
+    private LoadConfiguration config;
+
+    public Seeder(LoadConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+    * Creates any missing load-test users and pays each new user a salary.
+    * Users which already exist are left alone, so seeding can be repeated.
+    * @return The number of users which were created.
+    */
+    public int seed() throws Exception {
+        SecurityConfiguration security = SecurityConfiguration.fromFile(this.config.getSecurity());
+        int created = 0;
+
+        try(Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.config.getDatabase())) {
+            // amounts are stored in cents, and user IDs come from a sequence,
+            // since the server upgraded the schema, which it does whenever
+            // it starts
+            if(!this.hasCents(connection) || !this.hasSequences(connection)) {
+                throw new SQLException("Start the server once so that it can upgrade " + this.config.getDatabase());
+            }
+
+            connection.setAutoCommit(false);
+
+            // reserve an ID for every user up front, so that a running
+            // server never hands out the same IDs; those left over when
+            // users already exist are skipped
+            int id = this.reserveUserIDs(connection, this.config.getUsers());
+
+            for(int i = 0; i < this.config.getUsers(); i++) {
+                String username = LoadConfiguration.username(i);
+
+                if(this.exists(connection, username)) {
+                    continue;
+                }
+
+                String salt = security.generateSalt();
+
+                try(PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO users (id,username,password,salt,iterations,keySize) VALUES (?,?,?,?,?,?);")) {
+                    stmt.setInt(1, id);
+                    stmt.setString(2, username);
+                    stmt.setString(3, security.pbkdf2(this.config.getPassword(), salt));
+                    stmt.setString(4, salt);
+                    stmt.setInt(5, security.getIterations());
+                    stmt.setInt(6, security.getKeySize());
+                    stmt.executeUpdate();
+                }
+
+                // the server counts transactions written since its last
+                // balance checkpoint, so the salary shows up straight away;
+                // if the ledger is sharded, the server also moves the
+                // salary to the user's shard when it next starts
+                try(PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO transactions (uid,cents,description) VALUES (?,?,?);")) {
+                    stmt.setInt(1, id);
+                    stmt.setLong(2, this.config.getSalary());
+                    stmt.setString(3, "Load test salary");
+                    stmt.executeUpdate();
+                }
+
+                id++;
+                created++;
+            }
+
+            connection.commit();
+        }
+
+        return created;
+    }
+
+    /**
+    * Determines whether a user with the specified name exists.
+    */
+    private boolean exists(Connection connection, String username) throws SQLException {
+        try(PreparedStatement stmt = connection.prepareStatement("SELECT 1 FROM users WHERE username=?;")) {
+            stmt.setString(1, username);
+
+            try(ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+    * Determines whether the transactions table stores amounts in cents.
+    */
+    private boolean hasCents(Connection connection) throws SQLException {
+        try(Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("PRAGMA table_info(transactions);")) {
+            while(rs.next()) {
+                if(rs.getString("name").equals("cents")) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+    * Determines whether the database has the table user IDs are reserved from.
+    */
+    private boolean hasSequences(Connection connection) throws SQLException {
+        try(Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name='id_sequences';")) {
+            return rs.next();
+        }
+    }
+
+    /**
+    * Reserves a block of user IDs in the current transaction.
+    * @param count The number of IDs to reserve.
+    * @return The first ID in the block.
+    */
+    private int reserveUserIDs(Connection connection, int count) throws SQLException {
+        // update first, so that the transaction takes the write lock before
+        // it reads the sequence
+        try(PreparedStatement stmt = connection.prepareStatement(
+            "UPDATE id_sequences SET next=next+? WHERE name='users';")) {
+            stmt.setInt(1, count);
+            stmt.executeUpdate();
+        }
+
+        try(Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT next FROM id_sequences WHERE name='users';")) {
+            if(!rs.next()) {
+                throw new SQLException("Start the server once so that it can create the users sequence in " + this.config.getDatabase());
+            }
+
+            return rs.getInt(1) - count;
+        }
+    }
+}
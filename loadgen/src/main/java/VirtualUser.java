@@ -0,0 +1,138 @@
+package loadgen;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+* A simulated customer using a third-party app. The user authorises the app
+* through the OAuth flow once, and then reads their statement and sends
+* transfers with the access token the app was given.
+*/
+public class VirtualUser {
+    /** The app the users authorise; the sample client is app 1. */
+    private static final String APP = "1";
+
+    /** The only redirect target the server trusts. */
+    private static final String TARGET = "http://localhost:8080/oauth";
+
+    /** How often a login which was turned away with a 503 is retried. */
+    private static final int LOGIN_ATTEMPTS = 30;
+
+    /** The options for the load test. */
+    private LoadConfiguration config;
+
+    /** The statistics for each route. */
+    private Map<String, RouteStats> stats;
+
+    /** The index of this user, which determines its account. */
+    private int index;
+
+    /** The client used to talk to the server. */
+    private Http http;
+
+    /** The access token obtained by logging in. */
+    private String accessToken;
+
+    public VirtualUser(LoadConfiguration config, Map<String, RouteStats> stats, int index) {
+        this.config = config;
+        this.stats = stats;
+        this.index = index;
+        this.http = new Http(config.getUrl());
+    }
+
+    /**
+    * Goes through the OAuth flow to obtain an access token.
+    */
+    public void login() throws IOException, InterruptedException {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("app", APP);
+        params.put("target", TARGET);
+
+        long start = System.nanoTime();
+        Http.Reply reply = this.http.get("/auth", params);
+        this.record("GET /auth", start, reply.getStatus() == 200);
+
+        params = new LinkedHashMap<String, String>();
+        params.put("username", LoadConfiguration.username(this.index));
+        params.put("password", this.config.getPassword());
+        params.put("appname", "Load test");
+        params.put("target", TARGET);
+        // accepted by the server's stub verifier
+        params.put("g-recaptcha-response", "loadgen");
+
+        for(int attempt = 1; ; attempt++) {
+            start = System.nanoTime();
+            reply = this.http.post("/auth", params);
+
+            String location = reply.getLocation();
+            boolean ok = reply.getStatus() == 302 && location != null && location.contains("?token=");
+            this.record("POST /auth", start, ok);
+
+            if(ok) {
+                String requestToken = URLDecoder.decode(location.substring(location.indexOf("?token=") + 7), "UTF-8");
+                params = new LinkedHashMap<String, String>();
+                params.put("token", requestToken);
+                break;
+            }
+
+            // the server sheds logins when its hashing queue is full
+            if(reply.getStatus() != 503 || attempt == LOGIN_ATTEMPTS) {
+                throw new IOException("Login failed for " + LoadConfiguration.username(this.index) +
+                    " with status " + reply.getStatus() + "; is captchaVerifier set to stub?");
+            }
+
+            Thread.sleep(1000);
+        }
+
+        start = System.nanoTime();
+        reply = this.http.post("/exchange", params);
+        this.record("POST /exchange", start, reply.getStatus() == 200);
+
+        if(reply.getStatus() != 200) {
+            throw new IOException("Token exchange failed with status " + reply.getStatus());
+        }
+
+        this.accessToken = reply.getBody();
+    }
+
+    /**
+    * Makes one API request, either a statement read or a transfer.
+    * @param start When the request was meant to start, from System.nanoTime();
+    * in open-loop mode this is earlier than now if the generator fell behind.
+    */
+    public void step(long start) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("token", this.accessToken);
+
+        if(random.nextDouble() < this.config.getTransfers()) {
+            // pay anyone but ourselves
+            int recipient = (this.index + 1 + random.nextInt(this.config.getUsers() - 1)) % this.config.getUsers();
+            params.put("recipient", LoadConfiguration.username(recipient));
+            params.put("description", "Load test transfer");
+            params.put("amount", this.config.getAmount());
+
+            try {
+                Http.Reply reply = this.http.post("/transactions/new", params);
+                // false means the transfer was refused, which is a valid answer
+                this.record("POST /transactions/new", start, reply.getStatus() == 200 &&
+                    (reply.getBody().equals("true") || reply.getBody().equals("false")));
+            } catch(IOException ex) {
+                this.record("POST /transactions/new", start, false);
+            }
+        } else {
+            try {
+                Http.Reply reply = this.http.get("/transactions", params);
+                this.record("GET /transactions", start, reply.getStatus() == 200 && reply.getBody().startsWith("{"));
+            } catch(IOException ex) {
+                this.record("GET /transactions", start, false);
+            }
+        }
+    }
+
+    private void record(String route, long start, boolean ok) {
+        this.stats.get(route).record(System.nanoTime() - start, ok);
+    }
+}
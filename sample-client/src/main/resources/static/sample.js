@@ -34,15 +34,28 @@ function addTransaction() {
 }
 
 function listTransactions() {
-    $.getJSON('http://localhost:8000/transactions?token=' + encodeURIComponent(getCookie('accessToken')),
+    $('#resultContainer').children().remove();
+    loadTransactions(null);
+}
+
+function loadTransactions(before) {
+    var url = 'http://localhost:8000/transactions?token=' + encodeURIComponent(getCookie('accessToken'));
+
+    if(before !== null) {
+        url += '&before=' + before;
+    }
+
+    $.getJSON(url,
         function (data) {
             console.log(data);
             var container = $('#resultContainer');
-            container.children().remove();
+            container.children('.more').remove();
 
-            var balance = $('<div class="balance"></div>');
-            balance.text('Balance: £' + data.accountBalance);
-            balance.appendTo(container);
+            if(before === null) {
+                var balance = $('<div class="balance"></div>');
+                balance.text('Balance: £' + data.accountBalance);
+                balance.appendTo(container);
+            }
 
             $.each(data.transactions, function (index, value) {
                 var t = $('<div class="transaction"></div>');
@@ -64,6 +77,16 @@ function listTransactions() {
 
                 t.appendTo(container);
             });
+
+            // the API returns the history a page at a time
+            if(data.nextCursor !== undefined) {
+                var more = $('<a href="#" class="more">Older transactions</a>');
+                more.click(function () {
+                    loadTransactions(data.nextCursor);
+                    return false;
+                });
+                more.appendTo(container);
+            }
         });
 }
 
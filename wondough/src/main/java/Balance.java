@@ -0,0 +1,21 @@
+package wondough;
+
+/**
+* Represents the current balance of an account, without its transactions.
+*/
+public class Balance {
+    /** Stores the balance in cents. */
+    private long accountBalance;
+
+    /**
+    * Constructs a balance.
+    * @param accountBalance The balance in cents.
+    */
+    public Balance(long accountBalance) {
+        this.accountBalance = accountBalance;
+    }
+
+    public long getAccountBalance() {
+        return this.accountBalance;
+    }
+}
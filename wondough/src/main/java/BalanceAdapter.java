@@ -0,0 +1,54 @@
+package wondough;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.*;
+
+/**
+* Converts a Balance to and from JSON without using reflection. The field
+* has the same name and format as in a page of transactions.
+*/
+public class BalanceAdapter extends TypeAdapter<Balance> {
+    @Override
+    public void write(JsonWriter out, Balance balance) throws IOException {
+        if(balance == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("accountBalance").value(Money.toDecimal(balance.getAccountBalance()));
+        out.endObject();
+    }
+
+    @Override
+    public Balance read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        long accountBalance = 0;
+
+        in.beginObject();
+
+        while(in.hasNext()) {
+            String name = in.nextName();
+
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            }
+            else if(name.equals("accountBalance")) {
+                accountBalance = Money.parse(in.nextString());
+            }
+            else {
+                in.skipValue();
+            }
+        }
+
+        in.endObject();
+
+        return new Balance(accountBalance);
+    }
+}
@@ -0,0 +1,62 @@
+package wondough;
+
+import java.sql.SQLException;
+import java.util.concurrent.*;
+
+/**
+* Checkpoints the balance snapshots at a fixed interval on a background
+* thread. A balance is read as its snapshot plus the transactions written
+* since, so the interval bounds how many transactions a read has to sum,
+* however long the ledger grows.
+*/
+public class BalanceCheckpointer {
+    /** The database to checkpoint. */
+    private DbConnection connection;
+
+    /** The thread which takes the checkpoints. */
+    private ScheduledExecutorService executor;
+
+    /**
+    * Initialises a new checkpointer and starts its thread, unless the
+    * configured interval is zero.
+    * @param connection The database to checkpoint.
+    * @param config The configuration specifying the interval.
+    */
+    public BalanceCheckpointer(DbConnection connection, DatabaseConfiguration config) {
+        this.connection = connection;
+
+        int interval = config.getCheckpointInterval();
+
+        if(interval <= 0) {
+            return;
+        }
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "balance-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::checkpoint, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+    * Takes one checkpoint. A failure is reported and the next checkpoint
+    * tries again, since the snapshots stay correct, just further behind.
+    */
+    private void checkpoint() {
+        try {
+            this.connection.checkpoint();
+        } catch (SQLException e) {
+            System.out.println("Balance checkpoint failed: " + e.toString());
+        }
+    }
+
+    /**
+    * Stops taking checkpoints.
+    */
+    public void close() {
+        if(this.executor != null) {
+            this.executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package wondough;
+
+/**
+* Represents one transfer in a batch, together with its outcome once the
+* batch has been applied.
+*/
+public class BatchEntry {
+    /** Stores the username of the account receiving the money. */
+    private String recipient;
+    /** Stores the amount in cents. */
+    private long amount;
+    /** Stores the description. */
+    private String description;
+    /** Stores whether the transfer was applied. */
+    private boolean applied;
+    /** Stores why the transfer was not applied, if it wasn't. */
+    private String error;
+
+    /**
+    * Constructs a new batch entry.
+    * @param recipient The username of the recipient of the money.
+    * @param amount The amount that is being transferred, in cents.
+    * @param description The description of the transaction.
+    */
+    public BatchEntry(String recipient, long amount, String description) {
+        this.recipient = recipient;
+        this.amount = amount;
+        this.description = description;
+    }
+
+    public String getRecipient() {
+        return this.recipient;
+    }
+
+    public long getAmount() {
+        return this.amount;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public boolean isApplied() {
+        return this.applied;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    /** Marks the transfer as applied. */
+    public void applied() {
+        this.applied = true;
+        this.error = null;
+    }
+
+    /**
+    * Marks the transfer as rejected.
+    * @param error Why the transfer was not applied.
+    */
+    public void rejected(String error) {
+        this.applied = false;
+        this.error = error;
+    }
+}
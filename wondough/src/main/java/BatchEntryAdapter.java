@@ -0,0 +1,76 @@
+package wondough;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.*;
+
+/**
+* Converts a BatchEntry to and from JSON without using reflection. Entries
+* are read from a request as recipient, amount and description, and written
+* back with whether they were applied.
+*/
+public class BatchEntryAdapter extends TypeAdapter<BatchEntry> {
+    @Override
+    public void write(JsonWriter out, BatchEntry entry) throws IOException {
+        if(entry == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("recipient").value(entry.getRecipient());
+        out.name("amount").value(Money.toDecimal(entry.getAmount()));
+        out.name("description").value(entry.getDescription());
+        out.name("applied").value(entry.isApplied());
+
+        if(entry.getError() != null) {
+            out.name("error").value(entry.getError());
+        }
+
+        out.endObject();
+    }
+
+    @Override
+    public BatchEntry read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        String recipient = null;
+        Long amount = null;
+        String description = null;
+
+        in.beginObject();
+
+        while(in.hasNext()) {
+            String name = in.nextName();
+
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            }
+            else if(name.equals("recipient")) {
+                recipient = in.nextString();
+            }
+            else if(name.equals("amount")) {
+                amount = Money.parse(in.nextString());
+            }
+            else if(name.equals("description")) {
+                description = in.nextString();
+            }
+            else {
+                in.skipValue();
+            }
+        }
+
+        in.endObject();
+
+        // an entry without an amount is as invalid as one with a bad amount
+        if(amount == null) {
+            throw new NumberFormatException("Missing amount");
+        }
+
+        return new BatchEntry(recipient, amount, description);
+    }
+}
@@ -0,0 +1,22 @@
+package wondough;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+* Checks the response a client got from solving a reCAPTCHA.
+*/
+public interface CaptchaVerifier {
+    /**
+    * Starts checking a reCAPTCHA response without blocking the caller.
+    * @param response The g-recaptcha-response supplied by the client.
+    * @return Completes with whether the response is valid, or exceptionally
+    * if it could not be checked in time.
+    */
+    CompletableFuture<Boolean> verify(String response);
+
+    /**
+    * Releases any resources held by the verifier.
+    */
+    default void close() throws Exception {
+    }
+}
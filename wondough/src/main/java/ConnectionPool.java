@@ -0,0 +1,273 @@
+package wondough;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+* A bounded pool of connections to an SQLite database in WAL mode. There is
+* a single writer connection, which one thread at a time can hold, and a
+* fixed number of read-only connections, so that readers never have to wait
+* for a transfer to finish.
+*/
+public class ConnectionPool {
+    /** The configuration used to open connections. */
+    private DatabaseConfiguration config;
+
+    /** The name of the database file. */
+    private String filename;
+
+    /** The connection used for all writes. */
+    private Connection writer;
+
+    /** Guards the writer connection. */
+    private ReentrantLock writerLock = new ReentrantLock(true);
+
+    /** The read-only connections which are not currently in use. */
+    private BlockingQueue<Connection> readers;
+
+    /** All read-only connections, whether in use or not. */
+    private List<Connection> allReaders = new ArrayList<Connection>();
+
+    /** The prepared statement cache of each connection. */
+    private Map<Connection, StatementCache> statements = new IdentityHashMap<Connection, StatementCache>();
+
+    /** Limits the threads doing database work, across every pool. */
+    private DatabasePermits permits;
+
+    /** Counts prepared statements served from a cache. */
+    private LongAdder statementHits = new LongAdder();
+
+    /** Counts prepared statements which had to be prepared. */
+    private LongAdder statementMisses = new LongAdder();
+
+    /** Counts the prepared statements held open by all caches. */
+    private AtomicInteger cachedStatements = new AtomicInteger();
+
+    /**
+    * Opens the connections for a new pool on the main database file.
+    * @param config The database configuration to use.
+    */
+    public ConnectionPool(DatabaseConfiguration config) throws SQLException {
+        this(config, config.getFilename());
+    }
+
+    /**
+    * Opens the connections for a new pool.
+    * @param config The database configuration to use.
+    * @param filename The name of the database file.
+    */
+    public ConnectionPool(DatabaseConfiguration config, String filename) throws SQLException {
+        this(config, filename, new DatabasePermits(0, config.getBusyTimeout()));
+    }
+
+    /**
+    * Opens the connections for a new pool which shares its permits with
+    * other pools.
+    * @param config The database configuration to use.
+    * @param filename The name of the database file.
+    * @param permits The permits a thread must take before it takes a connection.
+    */
+    public ConnectionPool(DatabaseConfiguration config, String filename, DatabasePermits permits) throws SQLException {
+        this.config = config;
+        this.filename = filename;
+        this.permits = permits;
+
+        // the writer is opened first, since switching the journal mode
+        // requires write access to the database file
+        this.writer = this.open(false);
+
+        this.readers = new ArrayBlockingQueue<Connection>(Math.max(1, config.getPoolSize()));
+
+        for(int i = 0; i < Math.max(1, config.getPoolSize()); i++) {
+            Connection reader = this.open(true);
+            this.allReaders.add(reader);
+            this.readers.add(reader);
+        }
+    }
+
+    /**
+    * Opens and configures a new connection.
+    * @param readOnly Whether the connection should be read-only.
+    */
+    private Connection open(boolean readOnly) throws SQLException {
+        SQLiteConfig sqlite = new SQLiteConfig();
+        sqlite.setReadOnly(readOnly);
+
+        Connection connection = DriverManager.getConnection(
+            "jdbc:sqlite:" + this.filename, sqlite.toProperties());
+        Statement stmt = null;
+
+        try {
+            stmt = connection.createStatement();
+
+            if(!readOnly) {
+                stmt.execute("PRAGMA journal_mode=WAL;");
+            }
+
+            stmt.execute("PRAGMA busy_timeout=" + this.config.getBusyTimeout() + ";");
+            stmt.execute("PRAGMA cache_size=" + this.config.getCacheSize() + ";");
+            stmt.execute("PRAGMA mmap_size=" + this.config.getMmapSize() + ";");
+        } catch (SQLException e ) {
+            connection.close();
+            throw e;
+        } finally {
+            if (stmt != null) { stmt.close(); }
+        }
+
+        this.statements.put(connection, new StatementCache(connection, this.config.getStatementCacheSize(),
+            this.statementHits, this.statementMisses, this.cachedStatements));
+
+        return connection;
+    }
+
+    /**
+    * Takes a read-only connection from the pool, waiting for one to become
+    * available if necessary. If the current thread holds the writer, the
+    * writer is returned instead so that it sees its own uncommitted changes.
+    * Every connection must be handed back with release.
+    */
+    public Connection getReader() throws SQLException {
+        if(this.writerLock.isHeldByCurrentThread()) {
+            return this.getWriter();
+        }
+
+        // the time spent waiting for a connection counts as database time
+        Metrics.enterDatabase();
+
+        try {
+            this.permits.acquire();
+        } catch (SQLException e) {
+            Metrics.exitDatabase();
+            throw e;
+        }
+
+        try {
+            Connection connection = this.readers.poll(this.config.getBusyTimeout(), TimeUnit.MILLISECONDS);
+
+            if(connection == null) {
+                this.permits.release();
+                Metrics.exitDatabase();
+                throw new SQLException("Timed out waiting for a database connection.");
+            }
+
+            return connection;
+        } catch (InterruptedException e) {
+            this.permits.release();
+            Metrics.exitDatabase();
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+    * Takes the writer connection, waiting for other threads to finish with
+    * it if necessary. Every connection must be handed back with release.
+    */
+    public Connection getWriter() throws SQLException {
+        Metrics.enterDatabase();
+
+        try {
+            this.permits.acquire();
+        } catch (SQLException e) {
+            Metrics.exitDatabase();
+            throw e;
+        }
+
+        try {
+            if(!this.writerLock.tryLock(this.config.getBusyTimeout(), TimeUnit.MILLISECONDS)) {
+                this.permits.release();
+                Metrics.exitDatabase();
+                throw new SQLException("Timed out waiting for the database writer.");
+            }
+
+            return this.writer;
+        } catch (InterruptedException e) {
+            this.permits.release();
+            Metrics.exitDatabase();
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+    * Hands a connection back to the pool.
+    * @param connection The connection obtained from getReader or getWriter.
+    */
+    public void release(Connection connection) {
+        if(connection == null) {
+            return;
+        }
+
+        if(connection == this.writer) {
+            this.writerLock.unlock();
+        }
+        else {
+            this.readers.offer(connection);
+        }
+
+        this.permits.release();
+        Metrics.exitDatabase();
+    }
+
+    /**
+    * Gets a prepared statement for a query on a connection taken from this
+    * pool, reusing the one prepared by an earlier call where possible.
+    * Statements must be handed back with recycle, after closing their
+    * results, before the connection is released.
+    * @param connection The connection obtained from getReader or getWriter.
+    * @param query The SQL to prepare.
+    */
+    public PreparedStatement prepare(Connection connection, String query) throws SQLException {
+        return this.statements.get(connection).prepare(query);
+    }
+
+    /**
+    * Hands back a statement obtained from prepare.
+    * @param connection The connection the statement was prepared on.
+    * @param stmt The statement, or null.
+    */
+    public void recycle(Connection connection, PreparedStatement stmt) throws SQLException {
+        this.statements.get(connection).recycle(stmt);
+    }
+
+    /**
+    * Gets the number of prepared statements which were served from a cache.
+    */
+    public long getStatementCacheHits() {
+        return this.statementHits.sum();
+    }
+
+    /**
+    * Gets the number of prepared statements which had to be prepared.
+    */
+    public long getStatementCacheMisses() {
+        return this.statementMisses.sum();
+    }
+
+    /**
+    * Gets the number of prepared statements held open by all connections.
+    */
+    public int getCachedStatements() {
+        return this.cachedStatements.get();
+    }
+
+    /**
+    * Closes all connections in the pool.
+    */
+    public void close() throws SQLException {
+        for(StatementCache cache : this.statements.values()) {
+            cache.close();
+        }
+
+        for(Connection reader : this.allReaders) {
+            reader.close();
+        }
+
+        this.writer.close();
+    }
+}
@@ -0,0 +1,199 @@
+package wondough;
+
+import java.io.IOException;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.*;
+
+/**
+* Stores database-related configuration.
+*/
+public class DatabaseConfiguration {
+    /** Stores the name of the SQLite database file. */
+    @Expose
+    private String filename = "wondough.db";
+    /** Stores the number of read-only connections to keep open. */
+    @Expose
+    private int poolSize = 4;
+    /** Stores how long to wait for a lock or a connection, in milliseconds. */
+    @Expose
+    private int busyTimeout = 5000;
+    /** Stores the page cache size; negative values are in KiB. */
+    @Expose
+    private int cacheSize = -2000;
+    /** Stores the maximum number of bytes to memory-map. */
+    @Expose
+    private long mmapSize = 0;
+    /** Stores the maximum number of transfers to commit together. */
+    @Expose
+    private int batchSize = 64;
+    /** Stores how long a transfer may wait for others to join its batch, in milliseconds. */
+    @Expose
+    private int batchWait = 2;
+    /** Stores the number of transfers which can wait for each shard's writer. */
+    @Expose
+    private int ringSize = 1024;
+    /** Stores the maximum number of access tokens to cache. */
+    @Expose
+    private int tokenCacheSize = 10000;
+    /** Stores how long an access token stays cached, in seconds. */
+    @Expose
+    private int tokenCacheTtl = 300;
+    /** Stores the maximum number of prepared statements to keep open per connection. */
+    @Expose
+    private int statementCacheSize = 32;
+    /** Stores the number of files the ledger is split across. */
+    @Expose
+    private int shards = 1;
+    /** Stores the number of threads which can do database work at once, or zero for no limit. */
+    @Expose
+    private int permits = 0;
+    /** Stores how often the balance snapshots are checkpointed, in seconds, or zero for never. */
+    @Expose
+    private int checkpointInterval = 60;
+    /** Stores the number of user IDs to reserve from the database at a time. */
+    @Expose
+    private int idBlockSize = 100;
+
+    /**
+    * Gets the name of the SQLite database file.
+    */
+    public String getFilename() {
+        return this.filename;
+    }
+
+    /**
+    * Gets the number of read-only connections to keep open.
+    */
+    public int getPoolSize() {
+        return this.poolSize;
+    }
+
+    /**
+    * Gets how long to wait for a lock or a connection, in milliseconds.
+    */
+    public int getBusyTimeout() {
+        return this.busyTimeout;
+    }
+
+    /**
+    * Gets the value for the cache_size PRAGMA.
+    */
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+    * Gets the value for the mmap_size PRAGMA.
+    */
+    public long getMmapSize() {
+        return this.mmapSize;
+    }
+
+    /**
+    * Gets the maximum number of transfers to commit together.
+    */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+    * Gets how long a transfer may wait for others to join its batch.
+    */
+    public int getBatchWait() {
+        return this.batchWait;
+    }
+
+    /**
+    * Gets the number of transfers which can wait for each shard's writer
+    * before further requests have to wait for space.
+    */
+    public int getRingSize() {
+        return this.ringSize;
+    }
+
+    /**
+    * Gets the maximum number of access tokens to cache.
+    */
+    public int getTokenCacheSize() {
+        return this.tokenCacheSize;
+    }
+
+    /**
+    * Gets how long an access token stays cached, in seconds.
+    */
+    public int getTokenCacheTtl() {
+        return this.tokenCacheTtl;
+    }
+
+    /**
+    * Gets the maximum number of prepared statements to keep open per connection.
+    */
+    public int getStatementCacheSize() {
+        return this.statementCacheSize;
+    }
+
+    /**
+    * Gets the number of files the transactions and balances are split
+    * across, by user ID.
+    */
+    public int getShards() {
+        return Math.max(1, this.shards);
+    }
+
+    /**
+    * Gets the number of threads which can do database work at once, across
+    * every shard, or zero if only the size of the pools limits it.
+    */
+    public int getPermits() {
+        return this.permits;
+    }
+
+    /**
+    * Gets how often the balance snapshots are checkpointed, in seconds, or
+    * zero if they are only checkpointed when the database is opened.
+    */
+    public int getCheckpointInterval() {
+        return this.checkpointInterval;
+    }
+
+    /**
+    * Gets the number of user IDs to reserve from the database at a time.
+    * The rest of a block is skipped when the server stops.
+    */
+    public int getIdBlockSize() {
+        return Math.max(1, this.idBlockSize);
+    }
+
+    /**
+    * Gets the name of the SQLite file holding a shard of the ledger. The
+    * first shard lives in the main database file, alongside the users and
+    * apps; the others are named after it, e.g. wondough.shard1.db.
+    * @param shard The index of the shard.
+    */
+    public String getShardFilename(int shard) {
+        if(shard == 0) {
+            return this.filename;
+        }
+
+        int dot = this.filename.lastIndexOf('.');
+
+        if(dot < 0) {
+            return this.filename + ".shard" + shard;
+        }
+
+        return this.filename.substring(0, dot) + ".shard" + shard + this.filename.substring(dot);
+    }
+
+    /**
+    * Constructs an instance of this class by deserialising it from a file.
+    * @param filename The name of the file to deserialise from.
+    */
+    public static DatabaseConfiguration fromFile(String filename) throws IOException {
+        Gson gson = new Gson();
+        String contents = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+        return gson.fromJson(contents, DatabaseConfiguration.class);
+    }
+}
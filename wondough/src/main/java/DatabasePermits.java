@@ -0,0 +1,76 @@
+package wondough;
+
+import java.sql.SQLException;
+import java.util.concurrent.*;
+
+/**
+* Limits how many threads can do database work at once, across the pools
+* of every shard. SQLite runs inside native code, and a virtual thread
+* which calls into native code holds on to its carrier thread until the
+* call returns, so without a limit a burst of requests could tie up every
+* carrier. A thread takes one permit for its outermost connection and keeps
+* it until that connection is released, so a thread which already holds a
+* connection never waits for a permit to take another.
+*/
+public class DatabasePermits {
+    /** The permits, or null if database work is not limited. */
+    private Semaphore permits;
+
+    /** How long to wait for a permit, in milliseconds. */
+    private int timeout;
+
+    /** How many connections the current thread holds. */
+    private ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+    * Initialises a new set of permits.
+    * @param permits The number of threads which can do database work at
+    * once, or zero for no limit.
+    * @param timeout How long to wait for a permit, in milliseconds.
+    */
+    public DatabasePermits(int permits, int timeout) {
+        this.permits = permits > 0 ? new Semaphore(permits, true) : null;
+        this.timeout = timeout;
+    }
+
+    /**
+    * Takes a permit before the current thread takes a connection, waiting
+    * for one to become available if necessary. Every call must be matched
+    * by a call to release.
+    */
+    public void acquire() throws SQLException {
+        int[] held = this.depth.get();
+
+        if(held[0] == 0 && this.permits != null) {
+            try {
+                if(!this.permits.tryAcquire(this.timeout, TimeUnit.MILLISECONDS)) {
+                    throw new SQLException("Timed out waiting for a database permit.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException(e);
+            }
+        }
+
+        held[0]++;
+    }
+
+    /**
+    * Hands back the permit taken by acquire once the current thread has
+    * released its outermost connection.
+    */
+    public void release() {
+        int[] held = this.depth.get();
+
+        if(--held[0] == 0 && this.permits != null) {
+            this.permits.release();
+        }
+    }
+
+    /**
+    * Gets the number of threads waiting for a permit.
+    */
+    public int getQueueLength() {
+        return this.permits == null ? 0 : this.permits.getQueueLength();
+    }
+}
@@ -1,49 +1,551 @@
 package wondough;
 
+import java.io.File;
 import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
 * Represents a connection to the not-quite-as-volatile database.
+* The users and apps live in the main database file, while the ledger (the
+* transactions and balances) can be split by user ID across several files,
+* each with its own writer. A transfer between two shards debits the sender
+* and records the credit in its shard's outbox in one transaction; the
+* recipient's shard then applies the credit, together with a note of the
+* last credit it has seen from that shard, in one of its own transactions.
+* Credits therefore arrive exactly once and in order, even after a crash.
 * @author  The Intern
 * @version 0.1
 */
 public class DbConnection {
-    /** The database connection to use. */
-    private Connection connection;
+    /** The most parameters bound to one statement, below SQLite's limit of 999. */
+    private static final int MAX_PARAMETERS = 500;
+
+    /**
+    * Reads a balance as its last snapshot plus the transactions written
+    * since; the user's ID is bound three times. The index on uid lets the
+    * tail be summed without touching older rows.
+    */
+    private static final String BALANCE_QUERY =
+        "SELECT COALESCE((SELECT cents FROM balance_snapshots WHERE uid=?), 0) + " +
+        "COALESCE((SELECT SUM(cents) FROM transactions WHERE uid=? AND tid > " +
+        "COALESCE((SELECT tid FROM balance_snapshots WHERE uid=?), -1)), 0);";
+
+    /** The pool of connections to the main database file. */
+    private ConnectionPool pool;
+
+    /** The pool of connections to each shard of the ledger; the first is the main pool. */
+    private ConnectionPool[] shards;
+
+    /** Limits the threads doing database work, across every pool. */
+    private DatabasePermits permits;
+
+    /**
+    * The last outbox ID each shard has received from each other shard,
+    * indexed by source * shards + target, so that sources can clear out
+    * credits which have been delivered.
+    */
+    private AtomicLongArray delivered;
+
+    /**
+    * The outbox IDs up to which each shard has cleared its outbox, by the
+    * same index. Each entry is only touched by the holder of the source's
+    * writer.
+    */
+    private long[] cleared;
+
+    /** Caches the users which recently used access tokens belong to. */
+    private TokenCache tokenCache;
+
+    /** Holds every user account, so that looking one up needs no query. */
+    private UserDirectory users = new UserDirectory();
+
+    /** Hands out the IDs of new user accounts. */
+    private IdAllocator userIDs;
 
     /**
     * Initialises a new database connection.
-    * @param filename The name of the SQLite database file.
+    * @param config The configuration of the SQLite database.
+    */
+    public DbConnection(DatabaseConfiguration config) throws SQLException {
+        // open the pool of connections to the database, and to each of the
+        // other files the ledger is split across; all of them share one
+        // set of permits
+        this.permits = new DatabasePermits(config.getPermits(), config.getBusyTimeout());
+        this.pool = new ConnectionPool(config, config.getFilename(), this.permits);
+        this.shards = new ConnectionPool[config.getShards()];
+        this.shards[0] = this.pool;
+
+        try {
+            for(int i = 1; i < this.shards.length; i++) {
+                this.shards[i] = new ConnectionPool(config, config.getShardFilename(i), this.permits);
+            }
+        } catch (SQLException e ) {
+            this.close();
+            throw e;
+        }
+
+        this.delivered = new AtomicLongArray(this.shards.length * this.shards.length);
+        this.cleared = new long[this.shards.length * this.shards.length];
+        this.tokenCache = new TokenCache(config.getTokenCacheSize(), config.getTokenCacheTtl());
+        this.userIDs = new IdAllocator(this.pool, "users", config.getIdBlockSize());
+
+        // a file beyond the configured number of shards would still hold
+        // transactions which nothing reads
+        String extra = config.getShardFilename(this.shards.length);
+
+        if(new File(extra).exists()) {
+            this.close();
+            throw new SQLException(extra + " exists, but only " + this.shards.length + " shards are configured.");
+        }
+
+        // bring older database files up to the current schema
+        this.migrate();
+
+        // read every user account into memory
+        this.loadUsers();
+    }
+
+    /**
+    * Upgrades the schema of the database file if required. Every step is
+    * idempotent, so this is safe to run each time the database is opened.
+    */
+    private void migrate() throws SQLException {
+        // authorised_apps: store the digests which clients present as their
+        // tokens, so that they can be validated with an indexed lookup
+        this.addColumn("authorised_apps", "accessTokenHash", "TEXT");
+        this.addColumn("authorised_apps", "requestTokenHash", "TEXT");
+
+        this.backfillTokenHashes("accessToken", "accessTokenHash");
+        this.backfillTokenHashes("requestToken", "requestTokenHash");
+
+        this.execute("CREATE INDEX IF NOT EXISTS authorised_apps_accessTokenHash ON authorised_apps (accessTokenHash);");
+
+        // request tokens are single-use, so only those which have not been
+        // exchanged yet need to be in the index
+        this.execute("CREATE INDEX IF NOT EXISTS authorised_apps_requestTokenHash ON authorised_apps (requestTokenHash) WHERE requestTokenHash IS NOT NULL;");
+
+        // id_sequences: the first ID of each kind which has not been reserved
+        // yet; a sequence is moved past any IDs which were inserted without
+        // it, e.g. by an older version of the server
+        this.execute("CREATE TABLE IF NOT EXISTS id_sequences (name TEXT NOT NULL PRIMARY KEY, next INTEGER NOT NULL);");
+        this.execute("INSERT OR IGNORE INTO id_sequences (name,next) VALUES ('users',0);");
+        this.execute("UPDATE id_sequences SET next=MAX(next,(SELECT COALESCE(MAX(id),-1)+1 FROM users)) WHERE name='users';");
+
+        for(ConnectionPool shard : this.shards) {
+            // transactions: new shards start out empty
+            this.execute(shard, "CREATE TABLE IF NOT EXISTS transactions (tid INTEGER NOT NULL PRIMARY KEY, uid INTEGER NOT NULL, cents INTEGER NOT NULL DEFAULT 0, description TEXT);");
+
+            // transactions: store amounts as whole cents, so that they add up exactly
+            this.convertToCents(shard);
+
+            // transactions: let a user's history be paged through by tid;
+            // every index ends with the rowid, which tid is, but SQLite only
+            // seeks to a range of tids when it is not also named as a column
+            this.execute(shard, "DROP INDEX IF EXISTS transactions_uid_tid;");
+            this.execute(shard, "CREATE INDEX IF NOT EXISTS transactions_uid ON transactions (uid);");
+
+            // balance_snapshots: the balance of each account as of its
+            // last checkpoint
+            this.createSnapshots(shard);
+
+            // outbox: credits waiting to be applied by other shards; the IDs
+            // are never reused, so that a shard can tell which it has seen
+            this.execute(shard, "CREATE TABLE IF NOT EXISTS outbox (id INTEGER PRIMARY KEY AUTOINCREMENT, shard INTEGER NOT NULL, uid INTEGER NOT NULL, cents INTEGER NOT NULL, description TEXT);");
+            this.execute(shard, "CREATE INDEX IF NOT EXISTS outbox_shard_id ON outbox (shard, id);");
+
+            // inbox: the last credit received from each other shard
+            this.execute(shard, "CREATE TABLE IF NOT EXISTS inbox (shard INTEGER NOT NULL PRIMARY KEY, id INTEGER NOT NULL);");
+        }
+
+        // move the accounts which belong to another shard, e.g. after the
+        // number of shards was raised, then deliver any credits which were
+        // still waiting when the server last stopped; the checkpoint gives
+        // every account with transactions a snapshot to look through
+        for(int i = 0; i < this.shards.length; i++) {
+            this.checkpoint(i);
+            this.rebalance(i);
+        }
+
+        this.deliverAll();
+    }
+
+    /**
+    * Moves the transactions of accounts which belong to another shard out of
+    * the specified shard. They are sent through the outbox, so that each is
+    * moved exactly once even if the server stops halfway through.
+    * @param shard The index of the shard to move accounts out of.
+    */
+    private void rebalance(int shard) throws SQLException {
+        int count = this.shards.length;
+        String misplaced = "((uid % " + count + ") + " + count + ") % " + count + " != " + shard;
+
+        ConnectionPool pool = this.shards[shard];
+
+        // every account with transactions has a snapshot, and there are
+        // far fewer snapshots to look through
+        if(!this.exists(pool, "SELECT 1 FROM balance_snapshots WHERE " + misplaced + " LIMIT 1;")) {
+            return;
+        }
+
+        Connection connection = pool.getWriter();
+        boolean autoCommit = connection.getAutoCommit();
+
+        try {
+            connection.setAutoCommit(false);
+
+            this.execute(pool, "INSERT INTO outbox (shard,uid,cents,description) SELECT ((uid % " + count + ") + " + count + ") % " + count + ", uid, cents, description FROM transactions WHERE " + misplaced + " ORDER BY tid;");
+            this.execute(pool, "DELETE FROM transactions WHERE " + misplaced + ";");
+            this.execute(pool, "DELETE FROM balance_snapshots WHERE " + misplaced + ";");
+
+            connection.commit();
+        } catch (SQLException e ) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            pool.release(connection);
+        }
+    }
+
+    /**
+    * Delivers every credit waiting in an outbox, then clears the outboxes.
+    */
+    private void deliverAll() throws SQLException {
+        if(this.shards.length == 1) {
+            return;
+        }
+
+        List<Transfer> none = Collections.emptyList();
+
+        for(int i = 0; i < this.shards.length; i++) {
+            this.commitTransfers(i, none);
+        }
+
+        for(int i = 0; i < this.shards.length; i++) {
+            this.commitTransfers(i, none);
+        }
+    }
+
+    /**
+    * Rebuilds the transactions table with an integer cents column in place
+    * of the floating-point value column. The old balances and snapshots
+    * are dropped as well, so that createSnapshots sets them up again in
+    * cents.
+    */
+    private void convertToCents(ConnectionPool pool) throws SQLException {
+        if(this.hasColumn(pool, "transactions", "cents")) {
+            return;
+        }
+
+        Connection connection = pool.getWriter();
+        boolean autoCommit = connection.getAutoCommit();
+
+        try {
+            connection.setAutoCommit(false);
+
+            this.execute(pool, "CREATE TABLE transactions_cents (tid INTEGER NOT NULL PRIMARY KEY, uid INTEGER NOT NULL, cents INTEGER NOT NULL DEFAULT 0, description TEXT);");
+            this.execute(pool, "INSERT INTO transactions_cents (tid,uid,cents,description) SELECT tid, uid, CAST(ROUND(value * 100) AS INTEGER), description FROM transactions;");
+            this.execute(pool, "DROP TABLE transactions;");
+            this.execute(pool, "ALTER TABLE transactions_cents RENAME TO transactions;");
+            this.execute(pool, "DROP TABLE IF EXISTS balances;");
+            this.execute(pool, "DROP TABLE IF EXISTS balance_snapshots;");
+            this.execute(pool, "DROP TABLE IF EXISTS snapshot_checkpoint;");
+
+            connection.commit();
+        } catch (SQLException e ) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            pool.release(connection);
+        }
+    }
+
+    /**
+    * Creates the balance snapshots and takes the first one, from the
+    * running totals which older database files keep in their balances
+    * table where there is one. Afterwards, inserting a transaction only
+    * writes the transaction itself; checkpoint folds new transactions into
+    * the snapshots. Every transaction up to the checkpoint is included in
+    * its account's snapshot, so deleting or changing one of those corrects
+    * the snapshot through a trigger. A deletion also lowers the checkpoint
+    * to the highest remaining ID, since SQLite hands out the IDs above it
+    * again.
+    */
+    private void createSnapshots(ConnectionPool pool) throws SQLException {
+        if(this.hasTable(pool, "balance_snapshots")) {
+            return;
+        }
+
+        Connection connection = pool.getWriter();
+        boolean autoCommit = connection.getAutoCommit();
+
+        try {
+            connection.setAutoCommit(false);
+
+            // tid is the last transaction of the account which the snapshot includes
+            this.execute(pool, "CREATE TABLE balance_snapshots (uid INTEGER NOT NULL PRIMARY KEY, cents INTEGER NOT NULL DEFAULT 0, tid INTEGER NOT NULL);");
+
+            // the last transaction ID which every snapshot includes
+            this.execute(pool, "CREATE TABLE snapshot_checkpoint (id INTEGER NOT NULL PRIMARY KEY CHECK (id = 0), tid INTEGER NOT NULL);");
+
+            if(this.hasTable(pool, "balances")) {
+                this.execute(pool, "DROP TRIGGER IF EXISTS transactions_balance_insert;");
+                this.execute(pool, "DROP TRIGGER IF EXISTS transactions_balance_delete;");
+                this.execute(pool, "DROP TRIGGER IF EXISTS transactions_balance_update;");
+                this.execute(pool, "INSERT INTO balance_snapshots (uid,cents,tid) SELECT b.uid, b.cents, COALESCE((SELECT MAX(tid) FROM transactions t WHERE t.uid = b.uid), -1) FROM balances b;");
+                this.execute(pool, "DROP TABLE balances;");
+            }
+            else {
+                this.execute(pool, "INSERT INTO balance_snapshots (uid,cents,tid) SELECT uid, SUM(cents), MAX(tid) FROM transactions GROUP BY uid;");
+            }
+
+            this.execute(pool, "INSERT INTO snapshot_checkpoint (id,tid) SELECT 0, COALESCE(MAX(tid), 0) FROM transactions;");
+
+            this.execute(pool, "CREATE TRIGGER transactions_snapshot_delete AFTER DELETE ON transactions BEGIN " +
+                "UPDATE balance_snapshots SET cents = cents - OLD.cents, " +
+                "tid = (SELECT COALESCE(MAX(t.tid), -1) FROM transactions t WHERE t.uid = OLD.uid AND t.tid <= balance_snapshots.tid) " +
+                "WHERE uid = OLD.uid AND tid >= OLD.tid; " +
+                "UPDATE snapshot_checkpoint SET tid = MIN(tid, (SELECT COALESCE(MAX(tid), 0) FROM transactions)); " +
+                "END;");
+            this.execute(pool, "CREATE TRIGGER transactions_snapshot_update AFTER UPDATE OF uid, cents ON transactions " +
+                "WHEN OLD.tid <= (SELECT tid FROM snapshot_checkpoint) BEGIN " +
+                "UPDATE balance_snapshots SET cents = cents - OLD.cents WHERE uid = OLD.uid; " +
+                "INSERT OR IGNORE INTO balance_snapshots (uid,cents,tid) VALUES (NEW.uid, 0, -1); " +
+                "UPDATE balance_snapshots SET cents = cents + NEW.cents, tid = MAX(tid, NEW.tid) WHERE uid = NEW.uid; " +
+                "END;");
+
+            connection.commit();
+        } catch (SQLException e ) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            pool.release(connection);
+        }
+    }
+
+    /**
+    * Folds the transactions written since the last checkpoint into the
+    * balance snapshots of every shard, so that reading a balance never has
+    * to sum more than the transactions of one checkpoint interval.
+    */
+    public void checkpoint() throws SQLException {
+        for(int i = 0; i < this.shards.length; i++) {
+            this.checkpoint(i);
+        }
+    }
+
+    /**
+    * Folds the transactions written since the last checkpoint into the
+    * balance snapshots of one shard. Transactions are only ever appended
+    * with higher IDs, so only those after the checkpoint are read.
+    * @param shard The index of the shard to checkpoint.
+    */
+    private void checkpoint(int shard) throws SQLException {
+        ConnectionPool pool = this.shards[shard];
+        Connection connection = pool.getWriter();
+        boolean autoCommit = connection.getAutoCommit();
+
+        try {
+            connection.setAutoCommit(false);
+
+            // the checkpoint may have been lowered below transactions which
+            // a snapshot already includes, so those are skipped per account;
+            // without NOT INDEXED, SQLite would rather walk the whole (uid,
+            // tid) index than sort the tail by uid
+            this.execute(pool, "INSERT OR REPLACE INTO balance_snapshots (uid,cents,tid) " +
+                "SELECT t.uid, COALESCE(s.cents, 0) + SUM(t.cents), MAX(t.tid) " +
+                "FROM transactions t NOT INDEXED LEFT JOIN balance_snapshots s ON s.uid = t.uid " +
+                "WHERE t.tid > (SELECT tid FROM snapshot_checkpoint) AND t.tid > COALESCE(s.tid, -1) " +
+                "GROUP BY t.uid;");
+            this.execute(pool, "UPDATE snapshot_checkpoint SET tid = (SELECT COALESCE(MAX(tid), 0) FROM transactions);");
+
+            connection.commit();
+        } catch (SQLException e ) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            pool.release(connection);
+        }
+    }
+
+    /**
+    * Determines whether a database file contains a table with the specified name.
+    * @param pool The pool of connections to the file.
+    * @param table The name of the table.
+    */
+    private boolean hasTable(ConnectionPool pool, String table) throws SQLException {
+        PreparedStatement stmt = null;
+        String query = "SELECT name FROM sqlite_master WHERE type='table' AND name=? LIMIT 1;";
+
+        Connection connection = pool.getWriter();
+
+        try {
+            stmt = connection.prepareStatement(query);
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+
+            return rs.next();
+        } catch (SQLException e ) {
+            throw e;
+        } finally {
+            if (stmt != null) { stmt.close(); }
+            pool.release(connection);
+        }
+    }
+
+    /**
+    * Determines whether a query which does not take any parameters returns
+    * any rows.
+    * @param pool The pool of connections to the file to query.
+    * @param query The SQL to execute.
+    */
+    private boolean exists(ConnectionPool pool, String query) throws SQLException {
+        Statement stmt = null;
+
+        Connection connection = pool.getWriter();
+
+        try {
+            stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery(query);
+
+            return rs.next();
+        } catch (SQLException e ) {
+            throw e;
+        } finally {
+            if (stmt != null) { stmt.close(); }
+            pool.release(connection);
+        }
+    }
+
+    /**
+    * Executes a statement on the main database file which does not take any
+    * parameters.
+    * @param query The SQL to execute.
+    */
+    private void execute(String query) throws SQLException {
+        this.execute(this.pool, query);
+    }
+
+    /**
+    * Executes a statement which does not take any parameters.
+    * @param pool The pool of connections to the file to execute it on.
+    * @param query The SQL to execute.
     */
-    public DbConnection(String filename) throws SQLException {
-        // construct the connection string
-        String url = "jdbc:sqlite:" + filename;
+    private void execute(ConnectionPool pool, String query) throws SQLException {
+        Statement stmt = null;
+
+        Connection connection = pool.getWriter();
 
-        // connect to the database
-        this.connection = DriverManager.getConnection(url);
+        try {
+            stmt = connection.createStatement();
+            stmt.executeUpdate(query);
+        } catch (SQLException e ) {
+            throw e;
+        } finally {
+            if (stmt != null) { stmt.close(); }
+            pool.release(connection);
+        }
+    }
+
+    /**
+    * Adds a column to a table, unless the table already has it.
+    * @param table The name of the table.
+    * @param column The name of the column.
+    * @param type The type of the column.
+    */
+    private void addColumn(String table, String column, String type) throws SQLException {
+        if(!this.hasColumn(table, column)) {
+            this.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type + ";");
+        }
     }
 
     /**
-    * Retrieves the next User ID to use.
+    * Determines whether a table in the main database file has a column with
+    * the specified name.
+    * @param table The name of the table.
+    * @param column The name of the column.
     */
-    private int largestUserID() throws SQLException {
+    private boolean hasColumn(String table, String column) throws SQLException {
+        return this.hasColumn(this.pool, table, column);
+    }
+
+    /**
+    * Determines whether a table has a column with the specified name.
+    * @param pool The pool of connections to the file containing the table.
+    * @param table The name of the table.
+    * @param column The name of the column.
+    */
+    private boolean hasColumn(ConnectionPool pool, String table, String column) throws SQLException {
         Statement stmt = null;
-        String query = "SELECT id FROM users ORDER BY id DESC LIMIT 1;";
+        String query = "PRAGMA table_info(" + table + ");";
+
+        Connection connection = pool.getWriter();
 
         try {
-            stmt = this.connection.createStatement();
+            stmt = connection.createStatement();
             ResultSet rs = stmt.executeQuery(query);
 
-            if(rs.next()) {
-                return rs.getInt("id") + 1;
+            while(rs.next()) {
+                if(column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
             }
         } catch (SQLException e ) {
             throw e;
         } finally {
             if (stmt != null) { stmt.close(); }
+            pool.release(connection);
         }
 
-        return 0;
+        return false;
+    }
+
+    /**
+    * Computes the token digests for all authorised apps which were
+    * created before the digest column existed.
+    * @param tokenColumn The column which stores the token.
+    * @param hashColumn The column which stores the digest of the token.
+    */
+    private void backfillTokenHashes(String tokenColumn, String hashColumn) throws SQLException {
+        SecurityConfiguration config = Program.getInstance().getSecurityConfiguration();
+        Statement select = null;
+        PreparedStatement update = null;
+        String query = "SELECT rowid, " + tokenColumn + " FROM authorised_apps WHERE " +
+            hashColumn + " IS NULL AND " + tokenColumn + " IS NOT NULL;";
+        String updateQuery = "UPDATE authorised_apps SET " + hashColumn + "=? WHERE rowid=?;";
+        Connection connection = this.pool.getWriter();
+        boolean autoCommit = connection.getAutoCommit();
+
+        try {
+            // apply the whole backfill as one transaction so that large
+            // tables are not committed row by row
+            connection.setAutoCommit(false);
+
+            select = connection.createStatement();
+            update = connection.prepareStatement(updateQuery);
+            ResultSet rs = select.executeQuery(query);
+
+            while(rs.next()) {
+                update.setString(1, config.sha(rs.getString(tokenColumn)));
+                update.setLong(2, rs.getLong("rowid"));
+                update.addBatch();
+            }
+
+            update.executeBatch();
+            connection.commit();
+        } catch (SQLException e ) {
+            connection.rollback();
+            throw e;
+        } finally {
+            if (select != null) { select.close(); }
+            if (update != null) { update.close(); }
+            connection.setAutoCommit(autoCommit);
+            this.pool.release(connection);
+        }
     }
 
     /**
@@ -72,20 +574,26 @@ public class DbConnection {
     * @param user The user account to insert.
     */
     public boolean createUser(WondoughUser user) throws SQLException {
-		if (this.findUserByName(user.getUsername()) != null) {
-			return false;
-		}
-        // get the next available ID for this user
-        int id = this.largestUserID();
-
         // create a prepared statement to insert the user account
         // into the database
         PreparedStatement stmt = null;
         String query = "INSERT INTO users (id,username,password,salt,iterations,keySize) VALUES (?,?,?,?,?,?);";
 
+        // hold the writer until the user has been inserted, so that
+        // concurrent sign-ups cannot claim the same name or ID
+        Connection connection = this.pool.getWriter();
+
         // try to insert the user into the database
         try {
-            stmt = this.connection.prepareStatement(query);
+            if (this.findUserByName(user.getUsername()) != null) {
+                return false;
+            }
+
+            // get the next available ID for this user; the writer is held
+            // without a transaction, so a new block can be reserved
+            int id = (int)this.userIDs.next();
+
+            stmt = this.pool.prepare(connection, query);
             stmt.setInt(1, id);
 			stmt.setString(2, user.getUsername());
 			stmt.setString(3, user.getHashedPassword());
@@ -94,12 +602,23 @@ public class DbConnection {
 			stmt.setInt(6, user.getKeySize());
 
 			stmt.executeUpdate();
+
+            // the writer is still held, so no other sign-up can take the
+            // name before the directory has it
+            WondoughUser created = new WondoughUser(id, user.getUsername());
+            created.setHashedPassword(user.getHashedPassword());
+            created.setSalt(user.getSalt());
+            created.setIterations(user.getIterations());
+            created.setKeySize(user.getKeySize());
+            this.users.put(created);
         } catch (SQLException e ) {
             throw e;
         } finally {
-            if (stmt != null) { stmt.close(); }
-			return true;
+            this.pool.recycle(connection, stmt);
+            this.pool.release(connection);
         }
+
+        return true;
     }
 
 	/**
@@ -116,58 +635,124 @@ public class DbConnection {
 		PreparedStatement stmt = null;
 		String query = "UPDATE users SET iterations=?, keysize=?, password=? WHERE username =?";
 
+		Connection connection = this.pool.getWriter();
+
 		// try to update the user in the database
 		try {
-			stmt = this.connection.prepareStatement(query);
+			stmt = this.pool.prepare(connection, query);
 			stmt.setInt(1, iterations);
 			stmt.setInt(2, keySize);
 			stmt.setString(3, hashedPassword);
 			stmt.setString(4, username);
 
 			stmt.executeUpdate();
+
+			// keep the directory in step while the writer is still held
+			WondoughUser user = this.users.get(username);
+
+			if (user != null) {
+				user.setIterations(iterations);
+				user.setKeySize(keySize);
+				user.setHashedPassword(hashedPassword);
+				this.users.put(user);
+			}
 		} catch (SQLException e) {
 			throw e;
 		} finally {
-			if (stmt != null) { stmt.close(); }
+			this.pool.recycle(connection, stmt);
+			this.pool.release(connection);
 		}
 	}
 
     /**
-    * Looks up a user by their username.
+    * Looks up a user by their username, in the user directory first. A
+    * user which is not there, e.g. because another program added it to
+    * the database, is read from the database and added to the directory.
     * @param username The username to lookup.
     */
     public WondoughUser getUser(String username) throws SQLException {
+        WondoughUser cached = this.users.get(username);
+
+        if(cached != null) {
+            return cached;
+        }
 
 		// create a prepared statement to insert the user account
         // into the database
         PreparedStatement stmt = null;
+        ResultSet rs = null;
         String query = "SELECT * FROM users WHERE username=? LIMIT 1;";
 
+        Connection connection = this.pool.getReader();
+
 		// try to find the user in the database
         try {
-            stmt = this.connection.prepareStatement(query);
+            stmt = this.pool.prepare(connection, query);
             stmt.setString(1, username);
 
-			ResultSet rs = stmt.executeQuery();
+			rs = stmt.executeQuery();
 
 			// return user found
             if(rs.next()) {
-                WondoughUser user = new WondoughUser(rs.getInt("id"), rs.getString("username"));
-                user.setHashedPassword(rs.getString("password"));
-                user.setSalt(rs.getString("salt"));
-                user.setIterations(rs.getInt("iterations"));
-                user.setKeySize(rs.getInt("keySize"));
+                WondoughUser user = this.readUser(rs);
+                this.users.putIfAbsent(user);
                 return user;
             }
         } catch (SQLException e ) {
             throw e;
         } finally {
-            if (stmt != null) { stmt.close(); }
+            if (rs != null) { rs.close(); }
+            this.pool.recycle(connection, stmt);
+            this.pool.release(connection);
         }
 
         return null;
     }
 
+    /**
+    * Reads every user account into the user directory.
+    */
+    private void loadUsers() throws SQLException {
+        Connection connection = this.pool.getReader();
+
+        try(Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT * FROM users;")) {
+            while(rs.next()) {
+                this.users.put(this.readUser(rs));
+            }
+        } finally {
+            this.pool.release(connection);
+        }
+    }
+
+    /**
+    * Reads the user account at the current row of a query on the users table.
+    */
+    private WondoughUser readUser(ResultSet rs) throws SQLException {
+        WondoughUser user = new WondoughUser(rs.getInt("id"), rs.getString("username"));
+        user.setHashedPassword(rs.getString("password"));
+        user.setSalt(rs.getString("salt"));
+        user.setIterations(rs.getInt("iterations"));
+        user.setKeySize(rs.getInt("keySize"));
+        return user;
+    }
+
+    /**
+    * Drops a user from the user directory after another program has
+    * deleted it from the database.
+    * @param username The username of the deleted user.
+    */
+    public void forgetUser(String username) {
+        this.users.remove(username);
+    }
+
+    /**
+    * Gets the user directory, e.g. to inspect its size.
+    */
+    public UserDirectory getUserDirectory() {
+        return this.users;
+    }
+
     /**
     * Looks up whether an app exists and returns the display name of the
     * application if successful.
@@ -175,13 +760,16 @@ public class DbConnection {
     */
     public String lookupApp(int id) throws SQLException {
         PreparedStatement stmt = null;
+        ResultSet rs = null;
         String query = "SELECT name FROM apps WHERE appid=? LIMIT 1;";
 
+        Connection connection = this.pool.getReader();
+
         try {
-            stmt = this.connection.prepareStatement(query);
+            stmt = this.pool.prepare(connection, query);
             stmt.setInt(1, id);
 
-            ResultSet rs = stmt.executeQuery();
+            rs = stmt.executeQuery();
 
             if(rs.next()) {
                 return rs.getString("name");
@@ -189,7 +777,9 @@ public class DbConnection {
         } catch (SQLException e ) {
             throw e;
         } finally {
-            if (stmt != null) { stmt.close(); }
+            if (rs != null) { rs.close(); }
+            this.pool.recycle(connection, stmt);
+            this.pool.release(connection);
         }
 
         return null;
@@ -202,51 +792,79 @@ public class DbConnection {
     */
     public WondoughApp createApp(WondoughUser user) throws SQLException {
         PreparedStatement stmt = null;
-        String query = "INSERT INTO authorised_apps (user,requestToken,accessToken) VALUES (?,?,?);";
+        String query = "INSERT INTO authorised_apps (user,requestToken,accessToken,requestTokenHash,accessTokenHash) VALUES (?,?,?,?,?);";
+
+        Connection connection = this.pool.getWriter();
 
         try {
+            SecurityConfiguration config = Program.getInstance().getSecurityConfiguration();
             WondoughApp app = new WondoughApp(user.getID());
             app.setRequestToken(this.nextRequestToken());
             app.setAccessToken(this.nextAccessToken());
 
-            stmt = this.connection.prepareStatement(query);
+            stmt = this.pool.prepare(connection, query);
             stmt.setInt(1, user.getID());
             stmt.setString(2, app.getRequestToken());
             stmt.setString(3, app.getAccessToken());
+            stmt.setString(4, config.sha(app.getRequestToken()));
+            stmt.setString(5, config.sha(app.getAccessToken()));
             stmt.executeUpdate();
 
             return app;
         } catch (SQLException e ) {
             throw e;
         } finally {
-            if (stmt != null) { stmt.close(); }
+            this.pool.recycle(connection, stmt);
+            this.pool.release(connection);
         }
     }
 
     /**
-    * Exchanges a request token for an access token.
+    * Exchanges a request token for an access token. Request tokens can only
+    * be exchanged once.
     * @param requestToken The request token to exchange.
     */
     public String exchangeToken(String requestToken) throws SQLException {
-        SecurityConfiguration config = Program.getInstance().getSecurityConfiguration();
-        Statement stmt = null;
-        String query = "SELECT requestToken, accessToken FROM authorised_apps;";
+        PreparedStatement select = null;
+        PreparedStatement consume = null;
+        ResultSet rs = null;
+        String query = "SELECT rowid, accessTokenHash FROM authorised_apps WHERE requestTokenHash=? LIMIT 1;";
+        String consumeQuery = "UPDATE authorised_apps SET requestToken=NULL, requestTokenHash=NULL WHERE rowid=? AND requestTokenHash=?;";
+
+        if(requestToken == null) {
+            return null;
+        }
+
+        Connection connection = this.pool.getWriter();
 
         try {
-            stmt = this.connection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
+            select = this.pool.prepare(connection, query);
+            select.setString(1, requestToken);
+            rs = select.executeQuery();
 
-            while(rs.next()) {
-                String token = config.sha(rs.getString("requestToken"));
+            if(!rs.next()) {
+                return null;
+            }
 
-                if(token.equals(requestToken)) {
-                    return config.sha(rs.getString("accessToken"));
-                }
+            long row = rs.getLong("rowid");
+            String accessToken = rs.getString("accessTokenHash");
+
+            // the update only matches while the token is still unused, so
+            // if two exchanges race for the same token only one of them wins
+            consume = this.pool.prepare(connection, consumeQuery);
+            consume.setLong(1, row);
+            consume.setString(2, requestToken);
+
+            if(consume.executeUpdate() == 1) {
+                return accessToken;
             }
         } catch (SQLException e ) {
             throw e;
         } finally {
-            if (stmt != null) { stmt.close(); }
+            if (rs != null) { rs.close(); }
+            this.pool.recycle(connection, select);
+            this.pool.recycle(connection, consume);
+            this.pool.release(connection);
         }
 
         return null;
@@ -258,53 +876,222 @@ public class DbConnection {
     * @param accessToken The access token to validate.
     */
     public Integer isValidAccessToken(String accessToken) throws SQLException {
-        SecurityConfiguration config = Program.getInstance().getSecurityConfiguration();
-        Statement stmt = null;
-        String query = "SELECT user, accessToken FROM authorised_apps;";
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        String query = "SELECT user FROM authorised_apps WHERE accessTokenHash=? LIMIT 1;";
 
-        try {
-            stmt = this.connection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
+        // clients only ever see the digest of the access token, which is
+        // stored alongside it and indexed
+        if(accessToken == null) {
+            return null;
+        }
 
-            while(rs.next()) {
-                String token = config.sha(rs.getString("accessToken"));
+        // clients reuse the same token for many requests; only valid
+        // tokens are cached, so that guesses cannot fill the cache
+        Integer cached = this.tokenCache.get(accessToken);
 
-                if(token.equals(accessToken)) {
-                    return rs.getInt("user");
-                }
+        if(cached != null) {
+            return cached;
+        }
+
+        long generation = this.tokenCache.generation();
+        Connection connection = this.pool.getReader();
+
+        try {
+            stmt = this.pool.prepare(connection, query);
+            stmt.setString(1, accessToken);
+            rs = stmt.executeQuery();
+
+            if(rs.next()) {
+                int user = rs.getInt("user");
+                this.tokenCache.put(accessToken, user, generation);
+                return user;
             }
         } catch (SQLException e ) {
             throw e;
         } finally {
-            if (stmt != null) { stmt.close(); }
+            if (rs != null) { rs.close(); }
+            this.pool.recycle(connection, stmt);
+            this.pool.release(connection);
         }
 
         return null;
     }
 
+    /**
+    * Revokes an access token, so that it can no longer be used.
+    * @param accessToken The access token, as presented by the client.
+    */
+    public void revokeAccessToken(String accessToken) throws SQLException {
+        PreparedStatement stmt = null;
+        String query = "DELETE FROM authorised_apps WHERE accessTokenHash=?;";
+
+        Connection connection = this.pool.getWriter();
+
+        try {
+            stmt = this.pool.prepare(connection, query);
+            stmt.setString(1, accessToken);
+            stmt.executeUpdate();
+        } catch (SQLException e ) {
+            throw e;
+        } finally {
+            this.pool.recycle(connection, stmt);
+            this.tokenCache.invalidate(accessToken);
+            this.pool.release(connection);
+        }
+    }
+
+    /**
+    * Revokes all applications authorised by a user.
+    * @param user The unique ID of the user.
+    */
+    public void revokeApps(int user) throws SQLException {
+        PreparedStatement stmt = null;
+        String query = "DELETE FROM authorised_apps WHERE user=?;";
+
+        Connection connection = this.pool.getWriter();
+
+        try {
+            stmt = this.pool.prepare(connection, query);
+            stmt.setInt(1, user);
+            stmt.executeUpdate();
+        } catch (SQLException e ) {
+            throw e;
+        } finally {
+            this.pool.recycle(connection, stmt);
+            this.tokenCache.invalidateUser(user);
+            this.pool.release(connection);
+        }
+    }
+
+    /**
+    * Gets the cache of access tokens, e.g. to inspect its statistics.
+    */
+    public TokenCache getTokenCache() {
+        return this.tokenCache;
+    }
+
+    /**
+    * Gets the pool of connections to the main database file, e.g. to
+    * inspect its statement caches.
+    */
+    public ConnectionPool getConnectionPool() {
+        return this.pool;
+    }
+
+    /**
+    * Gets the pools of connections to every file, starting with the main
+    * database file.
+    */
+    public List<ConnectionPool> getConnectionPools() {
+        return Collections.unmodifiableList(Arrays.asList(this.shards));
+    }
+
+    /**
+    * Gets the permits shared by the pools of every file.
+    */
+    public DatabasePermits getPermits() {
+        return this.permits;
+    }
+
+    /**
+    * Gets the number of shards the ledger is split across.
+    */
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+    * Gets the index of the shard which holds a user's transactions and balance.
+    * @param user The unique ID of the user.
+    */
+    public int shardOf(int user) {
+        return Math.floorMod(user, this.shards.length);
+    }
+
+    /**
+    * Gets the pool of connections to the shard which holds a user's
+    * transactions and balance.
+    * @param user The unique ID of the user.
+    */
+    private ConnectionPool ledger(int user) {
+        return this.shards[this.shardOf(user)];
+    }
+
     /**
     * Looks up a user by their username and returns their unique ID.
     * @param username The username to lookup.
     */
     public Integer findUserByName(String username) throws SQLException {
-        PreparedStatement stmt = null;
-        String query = "SELECT id FROM users WHERE username=? LIMIT 1;";
+        Integer cached = this.users.findID(username);
+
+        if(cached != null) {
+            return cached;
+        }
+
+        WondoughUser user = this.getUser(username);
+        return user == null ? null : user.getID();
+    }
+
+    /**
+    * Looks up several users by their usernames, in the user directory
+    * first; those which are not there are read with a single query.
+    * @param usernames The usernames to lookup.
+    * @return The unique ID of each user that exists, by username.
+    */
+    public Map<String, Integer> findUsersByName(Collection<String> usernames) throws SQLException {
+        Map<String, Integer> users = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+
+        for(String username : new HashSet<String>(usernames)) {
+            Integer cached = this.users.findID(username);
+
+            if(cached != null) {
+                users.put(username, cached);
+            }
+            else if(username != null) {
+                names.add(username);
+            }
+        }
+
+        if(names.isEmpty()) {
+            return users;
+        }
+
+        Connection connection = this.pool.getReader();
 
         try {
-            stmt = this.connection.prepareStatement(query);
-            stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
+            // SQLite limits the number of parameters in one statement
+            for(int from = 0; from < names.size(); from += MAX_PARAMETERS) {
+                List<String> chunk = names.subList(from, Math.min(from + MAX_PARAMETERS, names.size()));
 
-            if(rs.next()) {
-                return rs.getInt("id");
+                StringBuilder query = new StringBuilder("SELECT * FROM users WHERE username IN (?");
+                for(int i = 1; i < chunk.size(); i++) {
+                    query.append(",?");
+                }
+                query.append(");");
+
+                // the query differs with the number of names, so it is not
+                // worth a place in the statement cache
+                try(PreparedStatement stmt = connection.prepareStatement(query.toString())) {
+                    for(int i = 0; i < chunk.size(); i++) {
+                        stmt.setString(i + 1, chunk.get(i));
+                    }
+
+                    try(ResultSet rs = stmt.executeQuery()) {
+                        while(rs.next()) {
+                            WondoughUser user = this.readUser(rs);
+                            this.users.putIfAbsent(user);
+                            users.put(user.getUsername(), user.getID());
+                        }
+                    }
+                }
             }
-        } catch (SQLException e ) {
-            throw e;
         } finally {
-            if (stmt != null) { stmt.close(); }
+            this.pool.release(connection);
         }
 
-        return null;
+        return users;
     }
 
     /**
@@ -312,51 +1099,340 @@ public class DbConnection {
     * @param user The ID of the user sending the money.
     * @param recipient The ID of the recipient of the money.
     * @param description The description of the transaction.
-    * @param amount The amount that is being transferred.
+    * @param amount The amount that is being transferred, in cents.
     */
-    public boolean createTransaction(int user, int recipient, String description, float amount) throws SQLException {
-        // don't allow users to send negative amounts
-        if(amount < 0) {
-            return false;
+    public boolean createTransaction(int user, int recipient, String description, long amount) throws SQLException {
+        Transfer transfer = new Transfer(user, recipient, description, amount);
+        return this.createTransactions(Collections.singletonList(transfer))[0];
+    }
+
+    /**
+    * Applies a batch of transfers in order. The transfers from each shard
+    * are committed together, in ascending order of shard, so that each
+    * shard costs a single sync to disk; then the shards which were sent
+    * credits apply them, also in ascending order. Each transfer is checked
+    * against the balance left by the transfers before it.
+    * @param transfers The transfers to apply.
+    * @return Whether each transfer was applied, in the order given.
+    */
+    public boolean[] createTransactions(List<Transfer> transfers) throws SQLException {
+        boolean[] results = new boolean[transfers.size()];
+
+        if(this.shards.length == 1) {
+            return this.commitTransfers(0, transfers);
         }
 
-		// get the balance for the user
-		Transactions result = this.getTransactions(user);
-		float total = result.getAccountBalance();
+        // split the batch by the sender's shard, keeping its order
+        SortedMap<Integer, List<Integer>> byShard = new TreeMap<Integer, List<Integer>>();
 
-		// don't allow users to send more money than they have
-		if (amount > total) {
-			return false;
-		}
-		
-        PreparedStatement creditStmt = null;
-        PreparedStatement debitStmt = null;
-        String creditQuery = "INSERT INTO transactions (uid,value,description) VALUES (?,?,?)";
-        String debitQuery = "INSERT INTO transactions (uid,value,description) VALUES (?,?,?)";
+        for(int i = 0; i < results.length; i++) {
+            byShard.computeIfAbsent(this.shardOf(transfers.get(i).getUserID()), s -> new ArrayList<Integer>()).add(i);
+        }
+
+        SortedSet<Integer> credited = new TreeSet<Integer>();
+
+        for(Map.Entry<Integer, List<Integer>> entry : byShard.entrySet()) {
+            List<Transfer> batch = new ArrayList<Transfer>(entry.getValue().size());
+
+            for(int i : entry.getValue()) {
+                batch.add(transfers.get(i));
+            }
+
+            boolean[] applied = this.commitTransfers(entry.getKey(), batch);
+
+            for(int i = 0; i < applied.length; i++) {
+                Transfer transfer = batch.get(i);
+                results[entry.getValue().get(i)] = applied[i];
+
+                if(applied[i] && this.shardOf(transfer.getRecipientID()) != entry.getKey()) {
+                    credited.add(this.shardOf(transfer.getRecipientID()));
+                }
+            }
+        }
+
+        // deliver the credits now rather than with the next transfer
+        for(int shard : credited) {
+            this.commitTransfers(shard, Collections.<Transfer>emptyList());
+        }
+
+        return results;
+    }
+
+    /**
+    * Applies a batch of transfers from the accounts in one shard and commits
+    * them together, along with any credits which other shards have sent
+    * since its last commit. A credit for an account in another shard is
+    * written to the outbox, to be applied by that shard's next commit.
+    * @param shard The index of the shard which holds the senders' accounts.
+    * @param transfers The transfers to apply.
+    * @return Whether each transfer was applied, in the order given.
+    */
+    public boolean[] commitTransfers(int shard, List<Transfer> transfers) throws SQLException {
+        boolean[] results = new boolean[transfers.size()];
+        Map<Integer, Long> balances = new HashMap<Integer, Long>();
+        PreparedStatement stmt = null;
+        PreparedStatement outbox = null;
+        String query = "INSERT INTO transactions (uid,cents,description) VALUES (?,?,?)";
+        String outboxQuery = "INSERT INTO outbox (shard,uid,cents,description) VALUES (?,?,?,?)";
+
+        for(Transfer transfer : transfers) {
+            if(this.shardOf(transfer.getUserID()) != shard) {
+                throw new IllegalArgumentException("User " + transfer.getUserID() + " is not in shard " + shard);
+            }
+        }
+
+        ConnectionPool pool = this.shards[shard];
+
+        // hold the writer from the first balance check until the batch has
+        // been committed, so that no other transfer can spend the same money
+        Connection connection = pool.getWriter();
+        boolean autoCommit = connection.getAutoCommit();
+
+        try {
+            // the debits and the credits are committed together
+            connection.setAutoCommit(false);
+
+            long[] received = this.receiveCredits(shard, connection);
+            this.clearOutbox(shard, connection);
+
+            stmt = pool.prepare(connection, query);
+
+            for(int i = 0; i < results.length; i++) {
+                Transfer transfer = transfers.get(i);
+                long amount = transfer.getAmount();
+
+                // don't allow users to send negative amounts
+                if(amount < 0) {
+                    continue;
+                }
+
+                Long balance = balances.get(transfer.getUserID());
+
+                if(balance == null) {
+                    balance = this.getBalance(transfer.getUserID());
+                }
+
+                // don't allow users to send more money than they have
+                if(amount > balance) {
+                    continue;
+                }
+
+                // debit the sender
+                stmt.setInt(1, transfer.getUserID());
+                stmt.setLong(2, -amount);
+                stmt.setString(3, transfer.getDescription());
+                stmt.executeUpdate();
+
+                int recipientShard = this.shardOf(transfer.getRecipientID());
+
+                if(recipientShard == shard) {
+                    // credit the recipient
+                    stmt.setInt(1, transfer.getRecipientID());
+                    stmt.setLong(2, amount);
+                    stmt.setString(3, transfer.getDescription());
+                    stmt.executeUpdate();
+                }
+                else {
+                    // send the credit to the recipient's shard
+                    if(outbox == null) {
+                        outbox = pool.prepare(connection, outboxQuery);
+                    }
+
+                    outbox.setInt(1, recipientShard);
+                    outbox.setInt(2, transfer.getRecipientID());
+                    outbox.setLong(3, amount);
+                    outbox.setString(4, transfer.getDescription());
+                    outbox.executeUpdate();
+                }
+
+                balances.put(transfer.getUserID(), balance - amount);
+
+                Long credited = balances.get(transfer.getRecipientID());
+
+                if(credited != null && recipientShard == shard) {
+                    balances.put(transfer.getRecipientID(), credited + amount);
+                }
+
+                results[i] = true;
+            }
+
+            connection.commit();
+
+            // let the senders clear out the credits this shard now has
+            for(int source = 0; source < received.length; source++) {
+                if(received[source] > 0) {
+                    this.delivered.set(source * this.shards.length + shard, received[source]);
+                }
+            }
+
+            return results;
+        } catch (SQLException e ) {
+            connection.rollback();
+            throw e;
+        } finally {
+            pool.recycle(connection, stmt);
+            pool.recycle(connection, outbox);
+            connection.setAutoCommit(autoCommit);
+            pool.release(connection);
+        }
+    }
+
+    /**
+    * Applies the credits which other shards have sent to a shard, as part
+    * of the transaction open on its writer.
+    * @param shard The index of the shard receiving the credits.
+    * @param connection The writer of that shard.
+    * @return The last outbox ID from each shard which this shard has
+    * applied, including in earlier transactions, or 0 if none.
+    */
+    private long[] receiveCredits(int shard, Connection connection) throws SQLException {
+        long[] received = new long[this.shards.length];
+        PreparedStatement last = null;
+        PreparedStatement insert = null;
+        PreparedStatement mark = null;
+        String lastQuery = "SELECT id FROM inbox WHERE shard=? LIMIT 1;";
+        String insertQuery = "INSERT INTO transactions (uid,cents,description) VALUES (?,?,?)";
+        String markQuery = "INSERT OR REPLACE INTO inbox (shard,id) VALUES (?,?)";
+        String outboxQuery = "SELECT id, uid, cents, description FROM outbox WHERE shard=? AND id>? ORDER BY id;";
+
+        ConnectionPool pool = this.shards[shard];
+
+        try {
+            for(int source = 0; source < this.shards.length; source++) {
+                if(source == shard) {
+                    continue;
+                }
+
+                if(last == null) {
+                    last = pool.prepare(connection, lastQuery);
+                }
+
+                last.setInt(1, source);
+
+                try(ResultSet rs = last.executeQuery()) {
+                    received[source] = rs.next() ? rs.getLong(1) : 0;
+                }
+
+                long seen = received[source];
+
+                // the outbox is read from a snapshot of the sender's shard,
+                // which only ever contains whole transactions, in ID order
+                ConnectionPool sender = this.shards[source];
+                Connection reader = sender.getReader();
+                PreparedStatement select = null;
+
+                try {
+                    select = sender.prepare(reader, outboxQuery);
+                    select.setInt(1, shard);
+                    select.setLong(2, seen);
+
+                    try(ResultSet rs = select.executeQuery()) {
+                        while(rs.next()) {
+                            if(insert == null) {
+                                insert = pool.prepare(connection, insertQuery);
+                            }
+
+                            insert.setInt(1, rs.getInt(2));
+                            insert.setLong(2, rs.getLong(3));
+                            insert.setString(3, rs.getString(4));
+                            insert.executeUpdate();
+
+                            received[source] = rs.getLong(1);
+                        }
+                    }
+                } finally {
+                    sender.recycle(reader, select);
+                    sender.release(reader);
+                }
+
+                // remember the last credit, so that it is never applied twice
+                if(received[source] > seen) {
+                    if(mark == null) {
+                        mark = pool.prepare(connection, markQuery);
+                    }
+
+                    mark.setInt(1, source);
+                    mark.setLong(2, received[source]);
+                    mark.executeUpdate();
+                }
+            }
+        } finally {
+            pool.recycle(connection, last);
+            pool.recycle(connection, insert);
+            pool.recycle(connection, mark);
+        }
+
+        return received;
+    }
+
+    /**
+    * Deletes the credits in a shard's outbox which their recipients have
+    * already applied, as part of the transaction open on its writer.
+    * @param shard The index of the shard which sent the credits.
+    * @param connection The writer of that shard.
+    */
+    private void clearOutbox(int shard, Connection connection) throws SQLException {
+        PreparedStatement stmt = null;
+        String query = "DELETE FROM outbox WHERE shard=? AND id<=?";
+
+        ConnectionPool pool = this.shards[shard];
 
         try {
-            creditStmt = this.connection.prepareStatement(creditQuery);
-            debitStmt = this.connection.prepareStatement(debitQuery);
+            for(int target = 0; target < this.shards.length; target++) {
+                int index = shard * this.shards.length + target;
+                long delivered = this.delivered.get(index);
 
-            debitStmt.setInt(1, user);
-            debitStmt.setFloat(2, -amount);
-            debitStmt.setString(3, description);
+                if(delivered <= this.cleared[index]) {
+                    continue;
+                }
 
-            debitStmt.executeUpdate();
+                if(stmt == null) {
+                    stmt = pool.prepare(connection, query);
+                }
 
-            creditStmt.setInt(1, recipient);
-            creditStmt.setFloat(2, amount);
-            creditStmt.setString(3, description);
+                stmt.setInt(1, target);
+                stmt.setLong(2, delivered);
+                stmt.executeUpdate();
 
-            creditStmt.executeUpdate();
+                // if this transaction is rolled back, the rows are deleted
+                // along with the next ones instead
+                this.cleared[index] = delivered;
+            }
+        } finally {
+            pool.recycle(connection, stmt);
+        }
+    }
 
-            return true;
+    /**
+    * Gets the current balance of a user's account, in cents.
+    * @param user The unique ID of the user to look up the balance for.
+    */
+    public long getBalance(int user) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+
+        ConnectionPool pool = this.ledger(user);
+        Connection connection = pool.getReader();
+
+        try {
+            stmt = pool.prepare(connection, BALANCE_QUERY);
+            stmt.setInt(1, user);
+            stmt.setInt(2, user);
+            stmt.setInt(3, user);
+            rs = stmt.executeQuery();
+
+            if(rs.next()) {
+                return rs.getLong(1);
+            }
         } catch (SQLException e ) {
             throw e;
         } finally {
-            if (creditStmt != null) { creditStmt.close(); }
-            if (debitStmt != null) { debitStmt.close(); }
+            if (rs != null) { rs.close(); }
+            pool.recycle(connection, stmt);
+            pool.release(connection);
         }
+
+        return 0;
     }
 
     /**
@@ -364,40 +1440,94 @@ public class DbConnection {
     * @param user The unique ID of the user to look up transactions for.
     */
     public Transactions getTransactions(int user) throws SQLException {
+        return this.getTransactions(user, null, -1);
+    }
+
+    /**
+    * Gets a page of transactions for a user, newest first. If there are older
+    * transactions than the ones returned, the result contains the cursor to
+    * pass as before to get the next page.
+    * @param user The unique ID of the user to look up transactions for.
+    * @param before Only return transactions with a lower ID than this, or null.
+    * @param limit The maximum number of transactions to return, or -1 for all.
+    */
+    public Transactions getTransactions(int user, Integer before, int limit) throws SQLException {
         PreparedStatement stmt = null;
-        String query = "SELECT * FROM transactions WHERE uid=? ORDER BY tid DESC;";
+        PreparedStatement balanceStmt = null;
+        ResultSet balance = null;
+        ResultSet rs = null;
+        String query = "SELECT tid, cents, description FROM transactions WHERE uid=? AND tid<? ORDER BY tid DESC LIMIT ?;";
+
+        ConnectionPool pool = this.ledger(user);
+        Connection connection = pool.getReader();
+        boolean autoCommit = connection.getAutoCommit();
 
         try {
-            stmt = this.connection.prepareStatement(query);
-            stmt.setInt(1, user);
-            ResultSet rs = stmt.executeQuery();
+            // read the rows and the balance from the same snapshot, unless
+            // this is already part of a transaction on the writer
+            if (autoCommit) { connection.setAutoCommit(false); }
+
+            balanceStmt = pool.prepare(connection, BALANCE_QUERY);
+            balanceStmt.setInt(1, user);
+            balanceStmt.setInt(2, user);
+            balanceStmt.setInt(3, user);
+            balance = balanceStmt.executeQuery();
 
             Transactions result = new Transactions();
-            float total = 0.0f;
+            result.setAccountBalance(balance.next() ? balance.getLong(1) : 0);
+
+            // the index on uid lets this seek straight to the cursor, so
+            // a page costs the same no matter how far back it is; one extra
+            // row is fetched to find out whether there is another page
+            stmt = pool.prepare(connection, query);
+            stmt.setInt(1, user);
+            stmt.setLong(2, before == null ? Long.MAX_VALUE : before);
+            stmt.setInt(3, limit < 0 ? -1 : limit + 1);
+            rs = stmt.executeQuery();
+
+            int count = 0;
+            int last = 0;
+            Integer nextCursor = null;
 
             while(rs.next()) {
-                Transaction t = new Transaction(rs.getInt("tid"));
-                t.setAmount(rs.getFloat("value"));
-                t.setDescription(rs.getString("description"));
-                result.addTransaction(t);
+                if(limit >= 0 && count == limit) {
+                    nextCursor = last;
+                    break;
+                }
 
-                total += t.getAmount();
+                last = rs.getInt(1);
+
+                Transaction t = new Transaction(last);
+                t.setUserID(user);
+                t.setAmount(rs.getLong(2));
+                t.setDescription(rs.getString(3));
+                result.addTransaction(t);
+                count++;
             }
 
-            result.setAccountBalance(total);
+            result.setNextCursor(nextCursor);
+
+            if (autoCommit) { connection.commit(); }
 
             return result;
         } catch (SQLException e ) {
             throw e;
         } finally {
-            if (stmt != null) { stmt.close(); }
+            if (rs != null) { rs.close(); }
+            pool.recycle(connection, stmt);
+            if (balance != null) { balance.close(); }
+            pool.recycle(connection, balanceStmt);
+            connection.setAutoCommit(autoCommit);
+            pool.release(connection);
         }
     }
 
     /**
-    * Closes the database connection.
+    * Closes the database connections.
     */
     public void close() throws SQLException {
-        this.connection.close();
+        for(ConnectionPool shard : this.shards) {
+            if (shard != null) { shard.close(); }
+        }
     }
 }
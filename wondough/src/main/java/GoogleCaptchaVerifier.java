@@ -0,0 +1,105 @@
+package wondough;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.FormContentProvider;
+import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+* Verifies reCAPTCHA responses with Google's siteverify endpoint. Requests
+* are sent asynchronously over a small pool of kept-alive connections, and
+* give up once the configured timeouts have passed.
+*/
+public class GoogleCaptchaVerifier implements CaptchaVerifier {
+    /** The endpoint which checks responses. */
+    private static final String SITEVERIFY = "https://www.google.com/recaptcha/api/siteverify";
+
+    /** The secret key of this site. */
+    private static final String SECRET = "6Le9l38UAAAAAFStV195bY29PLs8LMI2dTOwezGP";
+
+    /** The largest response body expected from the endpoint. */
+    private static final int MAX_RESPONSE = 8192;
+
+    /** How long an unused connection is kept open, in milliseconds. */
+    private static final long IDLE_TIMEOUT = 30000;
+
+    /** The client which holds the connection pool. */
+    private HttpClient client;
+
+    /** How long a check may take in total, in milliseconds. */
+    private long timeout;
+
+    /**
+    * Initialises a new verifier and starts its HTTP client.
+    * @param config The security configuration to take the timeouts from.
+    */
+    public GoogleCaptchaVerifier(SecurityConfiguration config) throws Exception {
+        // Jetty does not check the name in the certificate unless told to,
+        // and a forged answer from another host would pass every captcha
+        SslContextFactory ssl = new SslContextFactory();
+        ssl.setTrustAll(false);
+        ssl.setEndpointIdentificationAlgorithm("HTTPS");
+
+        this.client = new HttpClient(ssl);
+        this.client.setConnectTimeout(config.getCaptchaConnectTimeout());
+        this.client.setIdleTimeout(IDLE_TIMEOUT);
+        this.client.setMaxConnectionsPerDestination(config.getCaptchaConnections());
+        this.client.setFollowRedirects(false);
+        this.client.start();
+
+        this.timeout = config.getCaptchaTimeout();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> verify(String response) {
+        CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+        // send secret key and captcha response to google captcha
+        Fields fields = new Fields();
+        fields.put("secret", SECRET);
+        fields.put("response", response);
+
+        this.client.POST(SITEVERIFY)
+            .content(new FormContentProvider(fields))
+            .timeout(this.timeout, TimeUnit.MILLISECONDS)
+            .send(new BufferingResponseListener(MAX_RESPONSE) {
+                @Override
+                public void onComplete(Result outcome) {
+                    if (outcome.isFailed()) {
+                        result.completeExceptionally(outcome.getFailure());
+                        return;
+                    }
+
+                    // check response code is OK
+                    if (outcome.getResponse().getStatus() != 200) {
+                        result.complete(false);
+                        return;
+                    }
+
+                    // convert input to json file
+                    try (JsonReader jsonReader = Json.createReader(new StringReader(this.getContentAsString()))) {
+                        JsonObject jsonObject = jsonReader.readObject();
+                        result.complete(jsonObject.getBoolean("success", false));
+                    } catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+
+        return result;
+    }
+
+    @Override
+    public void close() throws Exception {
+        this.client.stop();
+    }
+}
@@ -0,0 +1,125 @@
+package wondough;
+
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Hands out unique IDs from a named sequence in the id_sequences table.
+* IDs are reserved from the database a block at a time, and handed out
+* from memory with a single atomic increment, so most IDs cost no query and
+* no lock. The reserved block is committed before any of its IDs are used,
+* so IDs are never handed out twice, even after a restart; the rest of a
+* block is skipped when the server stops.
+*/
+public class IdAllocator {
+    /** A block of reserved IDs. */
+    private static class Block {
+        /** The next ID to hand out, which may run past the limit. */
+        private final AtomicLong next;
+
+        /** The first ID after the block. */
+        private final long limit;
+
+        private Block(long start, long limit) {
+            this.next = new AtomicLong(start);
+            this.limit = limit;
+        }
+    }
+
+    /** The pool of connections to the file holding the sequence. */
+    private ConnectionPool pool;
+
+    /** The name of the sequence. */
+    private String name;
+
+    /** The number of IDs to reserve at a time. */
+    private int blockSize;
+
+    /** The block IDs are currently handed out from. */
+    private volatile Block block = new Block(0, 0);
+
+    /**
+    * Initialises a new allocator. The sequence must already exist.
+    * @param pool The pool of connections to the file holding the sequence.
+    * @param name The name of the sequence.
+    * @param blockSize The number of IDs to reserve at a time.
+    */
+    public IdAllocator(ConnectionPool pool, String name, int blockSize) {
+        this.pool = pool;
+        this.name = name;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    /**
+    * Hands out the next ID, reserving another block first if the current
+    * one has run out. This must not be called inside a transaction on the
+    * writer, since the reservation has to be committed on its own.
+    */
+    public long next() throws SQLException {
+        while(true) {
+            Block current = this.block;
+            long id = current.next.getAndIncrement();
+
+            if(id < current.limit) {
+                return id;
+            }
+
+            // only one thread reserves the next block; the others wait for
+            // it and then try again
+            synchronized(this) {
+                if(this.block == current) {
+                    this.block = this.reserve();
+                }
+            }
+        }
+    }
+
+    /**
+    * Reserves the next block of IDs from the database.
+    */
+    private Block reserve() throws SQLException {
+        PreparedStatement select = null;
+        PreparedStatement update = null;
+        ResultSet rs = null;
+
+        Connection connection = this.pool.getWriter();
+
+        try {
+            if(!connection.getAutoCommit()) {
+                throw new SQLException("IDs cannot be reserved inside a transaction.");
+            }
+
+            connection.setAutoCommit(false);
+
+            select = this.pool.prepare(connection, "SELECT next FROM id_sequences WHERE name=?;");
+            select.setString(1, this.name);
+            rs = select.executeQuery();
+
+            if(!rs.next()) {
+                throw new SQLException("There is no sequence named " + this.name + ".");
+            }
+
+            long start = rs.getLong(1);
+            rs.close();
+            rs = null;
+
+            update = this.pool.prepare(connection, "UPDATE id_sequences SET next=? WHERE name=?;");
+            update.setLong(1, start + this.blockSize);
+            update.setString(2, this.name);
+            update.executeUpdate();
+
+            connection.commit();
+
+            return new Block(start, start + this.blockSize);
+        } catch (SQLException e ) {
+            connection.rollback();
+            throw e;
+        } finally {
+            if (rs != null) { rs.close(); }
+            this.pool.recycle(connection, select);
+            this.pool.recycle(connection, update);
+            connection.setAutoCommit(true);
+            this.pool.release(connection);
+        }
+    }
+}
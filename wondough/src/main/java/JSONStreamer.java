@@ -0,0 +1,66 @@
+package wondough;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+* Writes a page of transactions as JSON straight to a stream, so that the
+* response never has to be rendered to a string first.
+*/
+public class JSONStreamer {
+    /** The writer to write the JSON to. */
+    private JsonWriter out;
+
+    /**
+    * Initialises a streamer which writes UTF-8 encoded JSON to a stream.
+    * @param stream The stream to write to, such as the response body.
+    */
+    public JSONStreamer(OutputStream stream) {
+        this(new JsonWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))));
+    }
+
+    /**
+    * Initialises a streamer which writes to an existing JSON writer.
+    * @param out The writer to write to.
+    */
+    public JSONStreamer(JsonWriter out) {
+        this.out = out;
+    }
+
+    /**
+    * Writes a page of transactions.
+    * @param transactions The page to write.
+    */
+    public void write(Transactions transactions) throws IOException {
+        // leave out null fields, as Gson does, without changing how the
+        // rest of a document written by someone else treats them
+        boolean serializeNulls = this.out.getSerializeNulls();
+        this.out.setSerializeNulls(false);
+
+        try {
+            this.out.beginObject();
+            // amounts are shown to clients as exact decimals, e.g. 19.99
+            this.out.name("accountBalance").value(Money.toDecimal(transactions.getAccountBalance()));
+            this.out.name("transactions").beginArray();
+
+            for(Transaction t : transactions.getTransactions()) {
+                TransactionAdapter.write(this.out, t.getID(), t.getUserID(), t.getAmount(), t.getDescription());
+            }
+
+            this.out.endArray();
+            this.out.name("nextCursor").value(transactions.getNextCursor());
+            this.out.endObject();
+        } finally {
+            this.out.setSerializeNulls(serializeNulls);
+        }
+    }
+
+    /**
+    * Writes any buffered output to the underlying stream.
+    */
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+}
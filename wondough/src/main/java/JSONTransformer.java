@@ -1,7 +1,7 @@
 package wondough;
 
 import spark.*;
-import com.google.gson.Gson;
+import com.google.gson.*;
 
 /**
 * A ResponseTransformer for JSON data.
@@ -10,9 +10,15 @@ import com.google.gson.Gson;
 public class JSONTransformer implements ResponseTransformer {
     /**
     * The Gson object used to transform the response body
-    * to a JSON object.
+    * to a JSON object. Transactions, balances and batch entries are converted
+    * by hand-written adapters rather than by reflection.
     */
-    private Gson gson = new Gson();
+    private Gson gson = new GsonBuilder()
+        .registerTypeAdapter(Transaction.class, new TransactionAdapter())
+        .registerTypeAdapter(Transactions.class, new TransactionsAdapter())
+        .registerTypeAdapter(Balance.class, new BalanceAdapter())
+        .registerTypeAdapter(BatchEntry.class, new BatchEntryAdapter())
+        .create();
 
     /**
     * Renders the response model to a JSON object.
@@ -21,4 +27,13 @@ public class JSONTransformer implements ResponseTransformer {
     public String render(Object model) {
         return gson.toJson(model);
     }
+
+    /**
+    * Reads a request body, using the same adapters as responses.
+    * @param body The JSON to read.
+    * @param type The type of model to read it as.
+    */
+    public <T> T parse(String body, Class<T> type) {
+        return gson.fromJson(body, type);
+    }
 }
@@ -0,0 +1,269 @@
+package wondough;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.HdrHistogram.*;
+import spark.*;
+
+/**
+* Collects request latencies, status codes and in-flight counts for each
+* route, and renders them in the Prometheus text format. Recording never
+* takes a lock, so it can be left on in production. The time a request
+* spends in the database and waiting for password hashing is counted
+* separately from its total time.
+*/
+public class Metrics {
+    /** The quantiles reported for each latency summary. */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /** A latency distribution, recorded in microseconds. */
+    private static class Timer {
+        private ConcurrentHistogram histogram = new ConcurrentHistogram(3);
+        private LongAdder sum = new LongAdder();
+
+        private void record(long nanos) {
+            this.histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+            this.sum.add(nanos);
+        }
+    }
+
+    /** The metrics for one route. */
+    private static class RouteMetrics {
+        private String labels;
+        private Timer total = new Timer();
+        private Timer database = new Timer();
+        private Timer hashing = new Timer();
+        private LongAdder inFlight = new LongAdder();
+        private ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<Integer, LongAdder>();
+
+        private RouteMetrics(String method, String path) {
+            this.labels = "method=\"" + method + "\",route=\"" + path + "\"";
+        }
+    }
+
+    /** A value which is read when the metrics are rendered. */
+    private static class Sample {
+        private String type;
+        private String help;
+        private LongSupplier value;
+
+        private Sample(String type, String help, LongSupplier value) {
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    /** What the current thread has spent on the request it is handling. */
+    private static class Tally {
+        private int depth;
+        private long databaseStart;
+        private long database;
+        private long hashing;
+    }
+
+    /** The metrics for each route, in the order the routes were mapped. */
+    private static final Map<String, RouteMetrics> routes =
+        Collections.synchronizedMap(new LinkedHashMap<String, RouteMetrics>());
+
+    /** How long database connections are held for, on any thread. */
+    private static final Timer database = new Timer();
+
+    /** How long PBKDF2 takes on the hashing threads. */
+    private static final Timer pbkdf2 = new Timer();
+
+    /** Values owned by other components, by metric name. */
+    private static final Map<String, Sample> samples =
+        Collections.synchronizedMap(new LinkedHashMap<String, Sample>());
+
+    private static final ThreadLocal<Tally> tally = ThreadLocal.withInitial(Tally::new);
+
+    /**
+    * Wraps a route so that its requests are measured. Spark does not run
+    * after-filters when a route halts or throws, so the measurement is
+    * taken around the route itself.
+    * @param method The HTTP method the route is mapped to.
+    * @param path The path the route is mapped to.
+    * @param route The route to measure.
+    */
+    public static Route timed(String method, String path, Route route) {
+        RouteMetrics metrics = new RouteMetrics(method, path);
+        routes.put(method + " " + path, metrics);
+
+        return (Request request, Response response) -> {
+            Tally current = tally.get();
+            current.database = 0;
+            current.hashing = 0;
+
+            metrics.inFlight.increment();
+            long start = System.nanoTime();
+            int status = 500;
+
+            try {
+                Object body = route.handle(request, response);
+                status = response.raw().getStatus();
+                return body;
+            } catch(HaltException ex) {
+                status = ex.statusCode();
+                throw ex;
+            } catch(Exception ex) {
+                // a response which was already sent keeps its status
+                if(response.raw().isCommitted()) {
+                    status = response.raw().getStatus();
+                }
+                throw ex;
+            } finally {
+                metrics.total.record(System.nanoTime() - start);
+                metrics.database.record(current.database);
+                metrics.hashing.record(current.hashing);
+                metrics.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+                metrics.inFlight.decrement();
+            }
+        };
+    }
+
+    /**
+    * Marks the start of database work on the current thread. Calls may be
+    * nested, in which case only the outermost pair is timed.
+    */
+    public static void enterDatabase() {
+        Tally current = tally.get();
+
+        if(current.depth++ == 0) {
+            current.databaseStart = System.nanoTime();
+        }
+    }
+
+    /**
+    * Marks the end of database work started by enterDatabase.
+    */
+    public static void exitDatabase() {
+        Tally current = tally.get();
+
+        if(--current.depth == 0) {
+            long nanos = System.nanoTime() - current.databaseStart;
+            current.database += nanos;
+            database.record(nanos);
+        }
+    }
+
+    /**
+    * Counts time the current request spent waiting for another thread to
+    * do database work on its behalf.
+    * @param nanos The time spent waiting.
+    */
+    public static void addDatabaseWait(long nanos) {
+        tally.get().database += nanos;
+    }
+
+    /**
+    * Counts time the current request spent waiting for a password to be
+    * hashed, including time in the hashing queue.
+    * @param nanos The time spent waiting.
+    */
+    public static void addHashingWait(long nanos) {
+        tally.get().hashing += nanos;
+    }
+
+    /**
+    * Records how long one PBKDF2 computation took.
+    * @param nanos The time taken.
+    */
+    public static void recordPbkdf2(long nanos) {
+        pbkdf2.record(nanos);
+    }
+
+    /**
+    * Adds a value owned by another component, such as the size of a cache,
+    * which is read whenever the metrics are rendered. A later call with the
+    * same name replaces the earlier one.
+    * @param name The name of the metric.
+    * @param type Either counter or gauge.
+    * @param help A description of the metric.
+    * @param value Reads the current value.
+    */
+    public static void register(String name, String type, String help, LongSupplier value) {
+        samples.put(name, new Sample(type, help, value));
+    }
+
+    /**
+    * Renders all metrics in the Prometheus text exposition format.
+    */
+    public static String render() {
+        List<RouteMetrics> all;
+
+        synchronized(routes) {
+            all = new ArrayList<RouteMetrics>(routes.values());
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        header(sb, "wondough_http_request_duration_seconds", "summary", "Time taken to handle requests.");
+        for(RouteMetrics route : all) {
+            summary(sb, "wondough_http_request_duration_seconds", route.labels, route.total);
+        }
+
+        header(sb, "wondough_http_request_database_seconds", "summary", "Time each request spent in the database.");
+        for(RouteMetrics route : all) {
+            summary(sb, "wondough_http_request_database_seconds", route.labels, route.database);
+        }
+
+        header(sb, "wondough_http_request_hashing_seconds", "summary", "Time each request spent waiting for password hashing.");
+        for(RouteMetrics route : all) {
+            summary(sb, "wondough_http_request_hashing_seconds", route.labels, route.hashing);
+        }
+
+        header(sb, "wondough_http_requests_total", "counter", "Requests handled, by status code.");
+        for(RouteMetrics route : all) {
+            for(Map.Entry<Integer, LongAdder> status : new TreeMap<Integer, LongAdder>(route.statuses).entrySet()) {
+                sb.append("wondough_http_requests_total{").append(route.labels)
+                    .append(",status=\"").append(status.getKey()).append("\"} ")
+                    .append(status.getValue().sum()).append('\n');
+            }
+        }
+
+        header(sb, "wondough_http_requests_in_flight", "gauge", "Requests currently being handled.");
+        for(RouteMetrics route : all) {
+            sb.append("wondough_http_requests_in_flight{").append(route.labels).append("} ")
+                .append(route.inFlight.sum()).append('\n');
+        }
+
+        header(sb, "wondough_database_seconds", "summary", "Time database connections were held for.");
+        summary(sb, "wondough_database_seconds", null, database);
+
+        header(sb, "wondough_pbkdf2_seconds", "summary", "Time taken to hash one password.");
+        summary(sb, "wondough_pbkdf2_seconds", null, pbkdf2);
+
+        synchronized(samples) {
+            for(Map.Entry<String, Sample> sample : samples.entrySet()) {
+                header(sb, sample.getKey(), sample.getValue().type, sample.getValue().help);
+                sb.append(sample.getKey()).append(' ').append(sample.getValue().value.getAsLong()).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, Timer timer) {
+        // the copy is consistent even while other threads keep recording
+        Histogram histogram = timer.histogram.copy();
+        String prefix = labels == null ? "" : labels + ",";
+
+        for(double quantile : QUANTILES) {
+            sb.append(name).append('{').append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                .append(histogram.getValueAtPercentile(quantile * 100) / 1e6).append('\n');
+        }
+
+        String suffix = labels == null ? " " : "{" + labels + "} ";
+        sb.append(name).append("_sum").append(suffix).append(timer.sum.sum() / 1e9).append('\n');
+        sb.append(name).append("_count").append(suffix).append(histogram.getTotalCount()).append('\n');
+    }
+}
@@ -0,0 +1,41 @@
+package wondough;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+* Converts between amounts of money in whole cents, which is how the ledger
+* stores and sums them, and the decimal amounts that clients see. Cents are
+* exact, so balances never drift however many rows they are summed over.
+*/
+public class Money {
+    /** The number of decimal places in an amount. */
+    private static final int SCALE = 2;
+
+    /**
+    * Converts an amount in cents to a decimal amount, e.g. 1999 to 19.99.
+    * @param cents The amount in cents.
+    */
+    public static BigDecimal toDecimal(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+    * Parses a decimal amount such as "19.99" into cents.
+    * @param amount The amount to parse.
+    * @throws NumberFormatException If the amount is not a number, has more
+    * than two decimal places or does not fit in a long.
+    */
+    public static long parse(String amount) {
+        if(amount == null) {
+            throw new NumberFormatException("No amount given.");
+        }
+
+        try {
+            return new BigDecimal(amount.trim()).setScale(SCALE, RoundingMode.UNNECESSARY)
+                .movePointRight(SCALE).longValueExact();
+        } catch(ArithmeticException ex) {
+            throw new NumberFormatException("Not a whole number of cents: " + amount);
+        }
+    }
+}
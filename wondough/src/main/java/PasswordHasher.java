@@ -0,0 +1,93 @@
+package wondough;
+
+import java.util.concurrent.*;
+
+/**
+* Runs PBKDF2 on a small, dedicated pool of threads with a bounded queue,
+* so that a burst of logins cannot tie up every request thread. When the
+* queue is full, new jobs are rejected straight away instead of waiting.
+*/
+public class PasswordHasher {
+    /** The security configuration to hash with. */
+    private SecurityConfiguration config;
+
+    /** The threads which run PBKDF2. */
+    private ThreadPoolExecutor executor;
+
+    /**
+    * Initialises a new hasher and starts its threads.
+    * @param config The security configuration to hash with.
+    */
+    public PasswordHasher(SecurityConfiguration config) {
+        this.config = config;
+
+        int threads = config.getHashThreads();
+        ThreadFactory factory = new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pbkdf2-" + (this.count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(1, config.getHashQueueSize())),
+            factory, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.prestartAllCoreThreads();
+    }
+
+    /**
+    * Hashes a password using PBKDF2 with the specified salt and waits for
+    * the result.
+    * @param password The password to hash.
+    * @param salt The salt to use.
+    * @param iterations The iterations to use.
+    * @param keySize The desired key size.
+    * @throws RejectedExecutionException If too many passwords are already waiting to be hashed.
+    */
+    public String pbkdf2(String password, String salt, int iterations, int keySize) {
+        long start = System.nanoTime();
+        Future<String> result = this.executor.submit(() -> {
+            long hashStart = System.nanoTime();
+
+            try {
+                return this.config.pbkdf2(password, salt, iterations, keySize);
+            } finally {
+                Metrics.recordPbkdf2(System.nanoTime() - hashStart);
+            }
+        });
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // includes the time spent in the queue
+            Metrics.addHashingWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+    * Hashes a password using PBKDF2 with the current security configuration.
+    * @param password The password to hash.
+    * @param salt The salt to use.
+    * @throws RejectedExecutionException If too many passwords are already waiting to be hashed.
+    */
+    public String pbkdf2(String password, String salt) {
+        return this.pbkdf2(password, salt, this.config.getIterations(), this.config.getKeySize());
+    }
+
+    /**
+    * Stops the threads once the jobs already submitted have finished.
+    */
+    public void close() {
+        this.executor.shutdown();
+    }
+}
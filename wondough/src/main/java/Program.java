@@ -1,5 +1,7 @@
 package wondough;
 
+import java.util.List;
+
 import static spark.Spark.*;
 import wondough.controllers.*;
 
@@ -15,9 +17,27 @@ public class Program {
     /** Stores the security configuration for this application. */
     private SecurityConfiguration securityConfiguration;
 
+    /** Stores the verifier for captcha responses. */
+    private CaptchaVerifier captchaVerifier;
+
+    /** Stores the pool of threads which hash passwords. */
+    private PasswordHasher passwordHasher;
+
+    /** Stores the web server configuration for this application. */
+    private ServerConfiguration serverConfiguration;
+
+    /** Stores the database configuration for this application. */
+    private DatabaseConfiguration databaseConfiguration;
+
     /** Stores the database connection. */
     private DbConnection connection;
 
+    /** Stores the pipeline which commits transfers in batches. */
+    private TransferPipeline transferPipeline;
+
+    /** Stores the job which checkpoints the balance snapshots. */
+    private BalanceCheckpointer balanceCheckpointer;
+
     /** Gets the singleton instance of this class. */
     public static Program getInstance() {
         return program;
@@ -28,11 +48,41 @@ public class Program {
         return this.securityConfiguration;
     }
 
+    /** Gets the captcha verifier for this program. */
+    public CaptchaVerifier getCaptchaVerifier() {
+        return this.captchaVerifier;
+    }
+
+    /** Gets the password hasher for this program. */
+    public PasswordHasher getPasswordHasher() {
+        return this.passwordHasher;
+    }
+
+    /** Gets the web server configuration for this program. */
+    public ServerConfiguration getServerConfiguration() {
+        return this.serverConfiguration;
+    }
+
+    /** Gets the database configuration for this program. */
+    public DatabaseConfiguration getDatabaseConfiguration() {
+        return this.databaseConfiguration;
+    }
+
     /** Gets the database connection for this program. */
     public DbConnection getDbConnection() {
         return this.connection;
     }
 
+    /** Gets the pipeline which commits transfers for this program. */
+    public TransferPipeline getTransferPipeline() {
+        return this.transferPipeline;
+    }
+
+    /** Gets the job which checkpoints the balance snapshots for this program. */
+    public BalanceCheckpointer getBalanceCheckpointer() {
+        return this.balanceCheckpointer;
+    }
+
     /** Explicitly mark constructor as private so no instances of this
     * class can be created elsewhere. */
     private Program() {
@@ -59,8 +109,72 @@ public class Program {
             this.securityConfiguration =
                 SecurityConfiguration.fromFile("security.json");
 
+            // choose how captcha responses are checked; the stub lets the
+            // login flow be load-tested without reaching Google
+            if("stub".equals(this.securityConfiguration.getCaptchaVerifier())) {
+                System.out.println("WARNING: captcha responses are not being verified.");
+                this.captchaVerifier = new StubCaptchaVerifier();
+            }
+            else {
+                this.captchaVerifier = new GoogleCaptchaVerifier(this.securityConfiguration);
+            }
+
+            // start the threads which hash passwords
+            this.passwordHasher = new PasswordHasher(this.securityConfiguration);
+
+            // load the database configuration from a file
+            this.databaseConfiguration =
+                DatabaseConfiguration.fromFile("database.json");
+
             // initialise the database connection
-            this.connection = new DbConnection("wondough.db");
+            this.connection = new DbConnection(this.databaseConfiguration);
+
+            // report how well the prepared statements are being reused,
+            // across the connections to every shard
+            List<ConnectionPool> pools = this.connection.getConnectionPools();
+            Metrics.register("wondough_statement_cache_hits_total", "counter",
+                "Prepared statements reused from a cache.",
+                () -> pools.stream().mapToLong(ConnectionPool::getStatementCacheHits).sum());
+            Metrics.register("wondough_statement_cache_misses_total", "counter",
+                "Prepared statements which had to be prepared.",
+                () -> pools.stream().mapToLong(ConnectionPool::getStatementCacheMisses).sum());
+            Metrics.register("wondough_statement_cache_size", "gauge",
+                "Prepared statements held open by all connections.",
+                () -> pools.stream().mapToLong(ConnectionPool::getCachedStatements).sum());
+
+            // report how often access tokens are found in the cache, so that
+            // it can be sized
+            TokenCache tokens = this.connection.getTokenCache();
+            Metrics.register("wondough_token_cache_hits_total", "counter",
+                "Access tokens found in the cache.",
+                tokens::getHits);
+            Metrics.register("wondough_token_cache_misses_total", "counter",
+                "Access tokens which had to be looked up.",
+                tokens::getMisses);
+            Metrics.register("wondough_token_cache_evictions_total", "counter",
+                "Access tokens evicted from the cache to make space.",
+                tokens::getEvictions);
+            Metrics.register("wondough_token_cache_size", "gauge",
+                "Access tokens held in the cache.",
+                () -> tokens.size());
+
+            Metrics.register("wondough_user_directory_size", "gauge",
+                "User accounts held in memory.",
+                () -> this.connection.getUserDirectory().size());
+            Metrics.register("wondough_database_permit_waiters", "gauge",
+                "Threads waiting for a permit to do database work.",
+                () -> this.connection.getPermits().getQueueLength());
+
+            // parse the templates before the first request needs them
+            ViewUtil.preloadTemplates();
+
+            // start committing transfers in batches
+            this.transferPipeline =
+                new TransferPipeline(this.connection, this.databaseConfiguration);
+
+            // keep the tail of each balance short
+            this.balanceCheckpointer =
+                new BalanceCheckpointer(this.connection, this.databaseConfiguration);
 
             /*WondoughUser hacker = new WondoughUser(1, "mike");
             hacker.setSalt(this.securityConfiguration.generateSalt());
@@ -69,21 +183,48 @@ public class Program {
             hacker.setKeySize(this.securityConfiguration.getKeySize());
             boolean userCreated = connection.createUser(hacker);*/
 
+            // load the web server configuration from a file
+            this.serverConfiguration =
+                ServerConfiguration.fromFile("server.json");
+
+            // handle each request on its own virtual thread if asked to; the
+            // database permits then stop requests from pinning every carrier
+            // thread in SQLite, while password hashing already has its own
+            // bounded pool
+            if("virtual".equals(this.serverConfiguration.getThreads())) {
+                if(!VirtualThreadServerFactory.install()) {
+                    System.out.println("WARNING: virtual threads need Java 21; using platform threads.");
+                }
+                else if(this.databaseConfiguration.getPermits() <= 0) {
+                    System.out.println("WARNING: database work is not limited; set permits in database.json.");
+                }
+            }
+
             // we will run on port 8000
             port(8000);
 
             // tell the Spark framework where to find static files
             staticFiles.location("/static");
 
-            // map routes to controllers
-            get("/auth", AuthController.serveAuthPage);
-            post("/auth", AuthController.handleAuth);
-            post("/exchange", AuthController.handleExchange);
+            // map routes to controllers; each route is timed
+            get("/auth", Metrics.timed("GET", "/auth", AuthController.serveAuthPage));
+            post("/auth", Metrics.timed("POST", "/auth", AuthController.handleAuth));
+            post("/exchange", Metrics.timed("POST", "/exchange", AuthController.handleExchange));
 
             get("/transactions", "application/json",
-                APIController.getTransactions, new JSONTransformer());
+                Metrics.timed("GET", "/transactions", APIController.getTransactions));
+            get("/balance", "application/json",
+                Metrics.timed("GET", "/balance", APIController.getBalance), new JSONTransformer());
             post("/transactions/new", "application/json",
-                APIController.postTransaction, new JSONTransformer());
+                Metrics.timed("POST", "/transactions/new", APIController.postTransaction), new JSONTransformer());
+            post("/transactions/batch", "application/json",
+                Metrics.timed("POST", "/transactions/batch", APIController.postTransactionBatch), new JSONTransformer());
+
+            // expose the metrics to Prometheus
+            get("/metrics", (request, response) -> {
+                response.type("text/plain; version=0.0.4");
+                return Metrics.render();
+            });
 
 			// run tests
 			TestingSuite test = new TestingSuite();
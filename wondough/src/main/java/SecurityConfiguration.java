@@ -19,6 +19,8 @@ import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
 
 /**
 * Stores security-related configuration.
@@ -26,6 +28,59 @@ import java.util.*;
 * @version 0.1
 */
 public class SecurityConfiguration {
+    /**
+    * Keeps a few spare instances of a class which is expensive to create and
+    * not thread-safe. A thread borrows an instance for one call and hands it
+    * back, so instances are reused on any kind of thread; a thread-local
+    * would create a new one on every call when each request runs on its own
+    * virtual thread.
+    */
+    private static class InstancePool<T> {
+        private final Queue<T> spare;
+        private final Supplier<T> factory;
+
+        private InstancePool(int size, Supplier<T> factory) {
+            this.spare = new ArrayBlockingQueue<T>(size);
+            this.factory = factory;
+        }
+
+        /** Takes a spare instance, or creates one if there is none. */
+        private T borrow() {
+            T instance = this.spare.poll();
+            return instance == null ? this.factory.get() : instance;
+        }
+
+        /** Hands an instance back, dropping it if enough are spare. */
+        private void give(T instance) {
+            this.spare.offer(instance);
+        }
+    }
+
+    /** The number of spare instances of each kind to keep. */
+    private static final int SPARE_INSTANCES = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final InstancePool<MessageDigest> SHA512 = new InstancePool<MessageDigest>(SPARE_INSTANCES, () -> {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final InstancePool<SecretKeyFactory> KEY_FACTORY = new InstancePool<SecretKeyFactory>(SPARE_INSTANCES, () -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+    * SecureRandom is thread-safe and seeds itself from the operating system
+    * on first use, so one instance is shared.
+    */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     /** Stores the number of iterations to use for PBKDF2 */
     @Expose
     private int iterations;
@@ -36,6 +91,25 @@ public class SecurityConfiguration {
 	@Expose
 	private int saltSize;
 
+    /** Stores the number of threads used for PBKDF2; 0 uses one per core */
+    @Expose
+    private int hashThreads;
+    /** Stores how many PBKDF2 jobs may wait for a thread */
+    @Expose
+    private int hashQueueSize = 64;
+    /** Stores which captcha verifier to use: "google", or "stub" for offline testing */
+    @Expose
+    private String captchaVerifier = "google";
+    /** Stores how long to wait for a connection to the captcha service, in milliseconds */
+    @Expose
+    private int captchaConnectTimeout = 1000;
+    /** Stores how long a captcha check may take in total, in milliseconds */
+    @Expose
+    private int captchaTimeout = 3000;
+    /** Stores how many connections to the captcha service to keep open */
+    @Expose
+    private int captchaConnections = 16;
+
     /**
     * Gets the number of iterations to use for PBKDF2.
     */
@@ -50,6 +124,52 @@ public class SecurityConfiguration {
         return this.keySize;
     }
 
+    /**
+    * Gets the number of threads to use for PBKDF2.
+    */
+    public int getHashThreads() {
+        if(this.hashThreads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        return this.hashThreads;
+    }
+
+    /**
+    * Gets the number of PBKDF2 jobs which may wait for a thread.
+    */
+    public int getHashQueueSize() {
+        return this.hashQueueSize;
+    }
+
+    /**
+    * Gets the name of the captcha verifier to use.
+    */
+    public String getCaptchaVerifier() {
+        return this.captchaVerifier;
+    }
+
+    /**
+    * Gets how long to wait for a connection to the captcha service, in milliseconds.
+    */
+    public int getCaptchaConnectTimeout() {
+        return this.captchaConnectTimeout;
+    }
+
+    /**
+    * Gets how long a captcha check may take in total, in milliseconds.
+    */
+    public int getCaptchaTimeout() {
+        return this.captchaTimeout;
+    }
+
+    /**
+    * Gets how many connections to the captcha service to keep open.
+    */
+    public int getCaptchaConnections() {
+        return this.captchaConnections;
+    }
+
     /**
     * Hashes a password using PBKDF2 with the specified salt.
     * @param password The password to hash.
@@ -69,21 +189,32 @@ public class SecurityConfiguration {
     public String pbkdf2(String password, String salt, int iterations, int keySize) {
         // convert the username and password to char and byte arrays
         char[] pwd = password.toCharArray();
-        byte[] slt = salt.getBytes();
+        byte[] slt = salt.getBytes(StandardCharsets.UTF_8);
 
-        try {
-            // initialise the crypto classes with the desired configuration
-            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-            PBEKeySpec spec = new PBEKeySpec(pwd, slt, iterations, keySize);
+        // return the hashed password as a hexadecimal string
+        return Hex.encodeHexString(this.pbkdf2(pwd, slt, iterations, keySize));
+    }
 
-            // hash the password using the configuration
-            SecretKey key = skf.generateSecret(spec);
-            byte[] res = key.getEncoded();
+    /**
+    * Hashes a password using PBKDF2 with the specified salt.
+    * @param password The password to hash.
+    * @param salt The salt to use.
+    * @param iterations The iterations to use.
+    * @param keySize The desired key size.
+    */
+    public byte[] pbkdf2(char[] password, byte[] salt, int iterations, int keySize) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keySize);
+        SecretKeyFactory factory = KEY_FACTORY.borrow();
 
-            // return the hashed password as a hexadecimal string
-            return Hex.encodeHexString(res);
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+        try {
+            // hash the password using the configuration
+            SecretKey key = factory.generateSecret(spec);
+            return key.getEncoded();
+        } catch (InvalidKeySpecException e) {
             throw new RuntimeException(e);
+        } finally {
+            spec.clearPassword();
+            KEY_FACTORY.give(factory);
         }
     }
 
@@ -92,25 +223,42 @@ public class SecurityConfiguration {
 	 */
     public String sha(String input) {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-512");
-            md.update(input.getBytes());
-            byte[] digest = md.digest();
-            Base64.Encoder encoder = Base64.getEncoder();
-            return encoder.encodeToString(digest);
+            byte[] digest = this.sha(input.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
         } catch(Exception ex) {
             return "";
         }
     }
 
+    /**
+    * Generates a SHA-512 hash of the input.
+    * @param input The bytes to hash.
+    */
+    public byte[] sha(byte[] input) {
+        MessageDigest md = SHA512.borrow();
+
+        try {
+            md.reset();
+            return md.digest(input);
+        } finally {
+            SHA512.give(md);
+        }
+    }
+
     /**
     * Generates a cryptographically secure salt.
     */
     public String generateSalt() {
-		SecureRandom random = new SecureRandom();
+		return Base64.getEncoder().encodeToString(this.generateSaltBytes());
+    }
+
+    /**
+    * Generates a cryptographically secure salt as raw bytes.
+    */
+    public byte[] generateSaltBytes() {
 		byte salt[] = new byte[this.saltSize];
-		random.nextBytes(salt);
-		Base64.Encoder encoder = Base64.getEncoder();
-		return encoder.encodeToString(salt);
+		RANDOM.nextBytes(salt);
+		return salt;
     }
 
     /**
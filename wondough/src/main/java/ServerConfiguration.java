@@ -0,0 +1,37 @@
+package wondough;
+
+import java.io.IOException;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.*;
+
+/**
+* Stores configuration for the embedded web server.
+*/
+public class ServerConfiguration {
+    /**
+    * Stores which threads handle requests: platform, for Jetty's own pool,
+    * or virtual, for a new virtual thread per request.
+    */
+    @Expose
+    private String threads = "platform";
+
+    /**
+    * Gets which threads handle requests, either platform or virtual.
+    */
+    public String getThreads() {
+        return this.threads;
+    }
+
+    /**
+    * Constructs an instance of this class by deserialising it from a file.
+    * @param filename The name of the file to deserialise from.
+    */
+    public static ServerConfiguration fromFile(String filename) throws IOException {
+        Gson gson = new Gson();
+        String contents = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+        return gson.fromJson(contents, ServerConfiguration.class);
+    }
+}
@@ -0,0 +1,130 @@
+package wondough;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+* Keeps the prepared statements of one connection open so that SQLite does
+* not have to parse and plan the same queries on every request. A cache
+* belongs to a single connection and is only used by the thread which
+* currently holds that connection, so it needs no locking of its own.
+*/
+public class StatementCache {
+    /** The connection the statements belong to. */
+    private Connection connection;
+
+    /** The largest number of statements to keep open. */
+    private int capacity;
+
+    /** The cached statements, least recently used first. */
+    private LinkedHashMap<String, PreparedStatement> statements;
+
+    /** The cached statements which have been handed out and not recycled. */
+    private Set<PreparedStatement> inUse = Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+
+    /** Counts statements served from a cache, shared by all caches of a pool. */
+    private LongAdder hits;
+
+    /** Counts statements which had to be prepared, shared by all caches of a pool. */
+    private LongAdder misses;
+
+    /** Counts the statements held by all caches of a pool. */
+    private AtomicInteger size;
+
+    /**
+    * Initialises a new cache for a connection.
+    * @param connection The connection to prepare statements on.
+    * @param capacity The largest number of statements to keep open.
+    * @param hits The counter for cache hits.
+    * @param misses The counter for cache misses.
+    * @param size The counter for cached statements.
+    */
+    public StatementCache(Connection connection, int capacity, LongAdder hits, LongAdder misses, AtomicInteger size) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.size = size;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    }
+
+    /**
+    * Gets a prepared statement for a query, reusing a cached one if it is
+    * not already in use further up the stack. Every statement must be handed
+    * back with recycle before the connection is released.
+    * @param query The SQL to prepare.
+    */
+    public PreparedStatement prepare(String query) throws SQLException {
+        PreparedStatement stmt = this.statements.get(query);
+
+        if(stmt != null && !this.inUse.contains(stmt)) {
+            this.hits.increment();
+            this.inUse.add(stmt);
+            return stmt;
+        }
+
+        this.misses.increment();
+        PreparedStatement prepared = this.connection.prepareStatement(query);
+
+        // a nested call for the same query gets a statement of its own,
+        // which is closed again when it is recycled
+        if(stmt == null && this.capacity > 0) {
+            this.statements.put(query, prepared);
+            this.inUse.add(prepared);
+            this.size.incrementAndGet();
+            this.evict();
+        }
+
+        return prepared;
+    }
+
+    /**
+    * Hands a statement back once its results have been closed. Cached
+    * statements have their parameters cleared; any others are closed.
+    * @param stmt The statement obtained from prepare, or null.
+    */
+    public void recycle(PreparedStatement stmt) throws SQLException {
+        if(stmt == null) {
+            return;
+        }
+
+        if(this.inUse.remove(stmt)) {
+            stmt.clearParameters();
+        }
+        else {
+            stmt.close();
+        }
+    }
+
+    /**
+    * Closes the least recently used statements which are not in use, until
+    * the cache is within its capacity.
+    */
+    private void evict() throws SQLException {
+        Iterator<PreparedStatement> it = this.statements.values().iterator();
+
+        while(this.statements.size() > this.capacity && it.hasNext()) {
+            PreparedStatement stmt = it.next();
+
+            if(!this.inUse.contains(stmt)) {
+                it.remove();
+                this.size.decrementAndGet();
+                stmt.close();
+            }
+        }
+    }
+
+    /**
+    * Closes all cached statements.
+    */
+    public void close() throws SQLException {
+        for(PreparedStatement stmt : this.statements.values()) {
+            stmt.close();
+        }
+
+        this.size.addAndGet(-this.statements.size());
+        this.statements.clear();
+        this.inUse.clear();
+    }
+}
@@ -0,0 +1,15 @@
+package wondough;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+* Accepts any non-empty reCAPTCHA response without contacting Google. This
+* lets the login flow be load-tested offline; it must never be used in
+* production.
+*/
+public class StubCaptchaVerifier implements CaptchaVerifier {
+    @Override
+    public CompletableFuture<Boolean> verify(String response) {
+        return CompletableFuture.completedFuture(response != null && !response.isEmpty());
+    }
+}
@@ -0,0 +1,227 @@
+package wondough;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+
+/**
+* A bounded, thread-safe cache which maps access tokens to the ID of the
+* user they belong to. Entries expire after a fixed time; when the cache is
+* full, the least recently used entries are evicted. The cache is split into
+* segments with their own locks, so that lookups rarely contend.
+*/
+public class TokenCache {
+    /** A cached user ID and the time at which it stops being valid. */
+    private static class CachedUser {
+        private final int user;
+        private final long expires;
+
+        private CachedUser(int user, long expires) {
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+
+    /** One part of the cache, ordered from least to most recently used. */
+    private class Segment extends LinkedHashMap<String, CachedUser> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+            if(this.size() > this.capacity) {
+                evictions.increment();
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /** The number of segments the cache is split into. */
+    private static final int SEGMENTS = 16;
+
+    /** The segments of the cache. */
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /** How long an entry stays valid, in nanoseconds. */
+    private final long ttl;
+
+    /** Changes whenever tokens are invalidated. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Counts lookups which were answered from the cache. */
+    private final LongAdder hits = new LongAdder();
+
+    /** Counts lookups which were not in the cache or had expired. */
+    private final LongAdder misses = new LongAdder();
+
+    /** Counts entries which were evicted to make space. */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+    * Initialises a new cache.
+    * @param maxSize The maximum number of tokens to cache.
+    * @param ttl How long a token stays cached, in seconds.
+    */
+    public TokenCache(int maxSize, int ttl) {
+        this.ttl = TimeUnit.SECONDS.toNanos(ttl);
+
+        int capacity = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+
+        for(int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+    * Gets the segment responsible for a token.
+    * @param token The access token.
+    */
+    private Segment segmentFor(String token) {
+        int hash = token.hashCode();
+        hash ^= (hash >>> 16);
+        return this.segments[(hash & 0x7fffffff) % SEGMENTS];
+    }
+
+    /**
+    * Looks up the user a token belongs to.
+    * @param token The access token.
+    * @return The ID of the user, or null if the token is not cached.
+    */
+    public Integer get(String token) {
+        Segment segment = this.segmentFor(token);
+        CachedUser entry;
+
+        synchronized(segment) {
+            entry = segment.get(token);
+
+            if(entry != null && entry.expires - System.nanoTime() <= 0) {
+                segment.remove(token);
+                entry = null;
+            }
+        }
+
+        if(entry == null) {
+            this.misses.increment();
+            return null;
+        }
+
+        this.hits.increment();
+        return entry.user;
+    }
+
+    /**
+    * Gets a value which changes whenever tokens are invalidated. Read it
+    * before looking a token up in the database and pass it to put.
+    */
+    public long generation() {
+        return this.generation.get();
+    }
+
+    /**
+    * Caches the user a token belongs to, unless tokens were invalidated
+    * since it was looked up, in which case it may just have been revoked.
+    * @param token The access token.
+    * @param user The ID of the user.
+    * @param generation The value of generation before the token was looked up.
+    */
+    public void put(String token, int user, long generation) {
+        Segment segment = this.segmentFor(token);
+        CachedUser entry = new CachedUser(user, System.nanoTime() + this.ttl);
+
+        synchronized(segment) {
+            if(this.generation.get() == generation) {
+                segment.put(token, entry);
+            }
+        }
+    }
+
+    /**
+    * Removes a token from the cache, e.g. after it has been revoked.
+    * @param token The access token.
+    */
+    public void invalidate(String token) {
+        Segment segment = this.segmentFor(token);
+        this.generation.incrementAndGet();
+
+        synchronized(segment) {
+            segment.remove(token);
+        }
+    }
+
+    /**
+    * Removes all tokens which belong to a user from the cache.
+    * @param user The ID of the user.
+    */
+    public void invalidateUser(int user) {
+        this.generation.incrementAndGet();
+
+        for(Segment segment : this.segments) {
+            synchronized(segment) {
+                segment.values().removeIf(entry -> entry.user == user);
+            }
+        }
+    }
+
+    /**
+    * Removes all tokens from the cache.
+    */
+    public void clear() {
+        this.generation.incrementAndGet();
+
+        for(Segment segment : this.segments) {
+            synchronized(segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+    * Gets the number of tokens currently cached.
+    */
+    public int size() {
+        int size = 0;
+
+        for(Segment segment : this.segments) {
+            synchronized(segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+    * Gets the number of lookups which were answered from the cache.
+    */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+    * Gets the number of lookups which were not answered from the cache.
+    */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+    * Gets the number of tokens which were evicted to make space.
+    */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TokenCache[size=" + this.size() + ", hits=" + this.getHits() +
+            ", misses=" + this.getMisses() + ", evictions=" + this.getEvictions() + "]";
+    }
+}
@@ -14,9 +14,9 @@ public class Transaction {
     /** Stores the ID of the account. */
     @Expose
     private int user;
-    /** Stores the amount. */
+    /** Stores the amount in cents. */
     @Expose
-    private float amount;
+    private long amount;
     /** Stores the description. */
     @Expose
     private String description;
@@ -41,11 +41,11 @@ public class Transaction {
         return this.user;
     }
 
-    public void setAmount(float amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
-    public float getAmount() {
+    public long getAmount() {
         return this.amount;
     }
 
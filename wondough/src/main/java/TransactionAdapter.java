@@ -0,0 +1,84 @@
+package wondough;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.*;
+
+/**
+* Converts a Transaction to and from JSON without using reflection.
+*/
+public class TransactionAdapter extends TypeAdapter<Transaction> {
+    /**
+    * Writes a transaction as a JSON object.
+    * @param out The writer to write to.
+    * @param id The unique ID of the transaction.
+    * @param user The ID of the account.
+    * @param amount The amount in cents.
+    * @param description The description.
+    */
+    public static void write(JsonWriter out, int id, int user, long amount, String description) throws IOException {
+        out.beginObject();
+        out.name("id").value(id);
+        out.name("user").value(user);
+        out.name("amount").value(Money.toDecimal(amount));
+        out.name("description").value(description);
+        out.endObject();
+    }
+
+    @Override
+    public void write(JsonWriter out, Transaction t) throws IOException {
+        if(t == null) {
+            out.nullValue();
+            return;
+        }
+
+        write(out, t.getID(), t.getUserID(), t.getAmount(), t.getDescription());
+    }
+
+    @Override
+    public Transaction read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        int id = 0;
+        int user = 0;
+        long amount = 0;
+        String description = null;
+
+        in.beginObject();
+
+        while(in.hasNext()) {
+            String name = in.nextName();
+
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            }
+            else if(name.equals("id")) {
+                id = in.nextInt();
+            }
+            else if(name.equals("user")) {
+                user = in.nextInt();
+            }
+            else if(name.equals("amount")) {
+                amount = Money.parse(in.nextString());
+            }
+            else if(name.equals("description")) {
+                description = in.nextString();
+            }
+            else {
+                in.skipValue();
+            }
+        }
+
+        in.endObject();
+
+        Transaction t = new Transaction(id);
+        t.setUserID(user);
+        t.setAmount(amount);
+        t.setDescription(description);
+        return t;
+    }
+}
@@ -3,18 +3,20 @@ package wondough;
 import java.util.*;
 
 public class Transactions {
-    private float accountBalance = 0.0f;
+    /** The balance of the account in cents. */
+    private long accountBalance = 0;
     private ArrayList<Transaction> transactions;
+    private Integer nextCursor;
 
     public Transactions() {
         this.transactions = new ArrayList<Transaction>();
     }
 
-    public float getAccountBalance() {
+    public long getAccountBalance() {
         return this.accountBalance;
     }
 
-    public void setAccountBalance(float balance) {
+    public void setAccountBalance(long balance) {
         this.accountBalance = balance;
     }
 
@@ -25,4 +27,12 @@ public class Transactions {
     public ArrayList<Transaction> getTransactions() {
         return this.transactions;
     }
+
+    public Integer getNextCursor() {
+        return this.nextCursor;
+    }
+
+    public void setNextCursor(Integer nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
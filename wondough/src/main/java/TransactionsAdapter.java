@@ -0,0 +1,67 @@
+package wondough;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.*;
+
+/**
+* Converts a page of Transactions to and from JSON without using reflection.
+*/
+public class TransactionsAdapter extends TypeAdapter<Transactions> {
+    /** Converts the individual transactions. */
+    private TransactionAdapter transactionAdapter = new TransactionAdapter();
+
+    @Override
+    public void write(JsonWriter out, Transactions transactions) throws IOException {
+        if(transactions == null) {
+            out.nullValue();
+            return;
+        }
+
+        // produce exactly the same output as a page written to a response
+        new JSONStreamer(out).write(transactions);
+    }
+
+    @Override
+    public Transactions read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        Transactions result = new Transactions();
+
+        in.beginObject();
+
+        while(in.hasNext()) {
+            String name = in.nextName();
+
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            }
+            else if(name.equals("accountBalance")) {
+                result.setAccountBalance(Money.parse(in.nextString()));
+            }
+            else if(name.equals("transactions")) {
+                in.beginArray();
+
+                while(in.hasNext()) {
+                    result.addTransaction(this.transactionAdapter.read(in));
+                }
+
+                in.endArray();
+            }
+            else if(name.equals("nextCursor")) {
+                result.setNextCursor(in.nextInt());
+            }
+            else {
+                in.skipValue();
+            }
+        }
+
+        in.endObject();
+
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package wondough;
+
+/**
+* Represents a request to move money from one account to another.
+*/
+public class Transfer {
+    /** Stores the ID of the account sending the money. */
+    private int user;
+    /** Stores the ID of the account receiving the money. */
+    private int recipient;
+    /** Stores the description. */
+    private String description;
+    /** Stores the amount in cents. */
+    private long amount;
+
+    /**
+    * Constructs a new transfer.
+    * @param user The ID of the user sending the money.
+    * @param recipient The ID of the recipient of the money.
+    * @param description The description of the transaction.
+    * @param amount The amount that is being transferred, in cents.
+    */
+    public Transfer(int user, int recipient, String description, long amount) {
+        this.user = user;
+        this.recipient = recipient;
+        this.description = description;
+        this.amount = amount;
+    }
+
+    public int getUserID() {
+        return this.user;
+    }
+
+    public int getRecipientID() {
+        return this.recipient;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public long getAmount() {
+        return this.amount;
+    }
+}
@@ -0,0 +1,153 @@
+package wondough;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Collects transfers from concurrent requests into short batches, which are
+* committed in one database transaction each. Each shard of the ledger has
+* its own ring of transfers and writer thread, so shards commit in parallel;
+* a transfer is published to its sender's shard. Because only the writer
+* applies transfers to its shard, they are checked against the balance one
+* after another, and the request threads never take a lock. Callers are only
+* answered once the batch containing their transfer has been committed.
+*/
+public class TransferPipeline {
+    /** How long a writer waits for a transfer before checking for shutdown, in nanoseconds. */
+    private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** The ring and writer thread of one shard. */
+    private class Lane {
+        private int shard;
+        private TransferRing ring;
+        private Thread writer;
+
+        private Lane(int shard, int ringSize) {
+            this.shard = shard;
+            this.ring = new TransferRing(ringSize);
+            this.writer = new Thread(() -> run(this), "transfer-pipeline-" + shard);
+            this.writer.setDaemon(true);
+        }
+    }
+
+    /** The database to commit batches to. */
+    private DbConnection connection;
+
+    /** The maximum number of transfers in a batch. */
+    private int batchSize;
+
+    /** How long the first transfer of a batch waits for others, in nanoseconds. */
+    private long batchWait;
+
+    /** The ring and writer of each shard. */
+    private Lane[] lanes;
+
+    /** Whether the pipeline should keep accepting work. */
+    private volatile boolean running = true;
+
+    /**
+    * Initialises a new pipeline and starts a writer thread for each shard.
+    * @param connection The database to commit batches to.
+    * @param config The configuration specifying the batch limits.
+    */
+    public TransferPipeline(DbConnection connection, DatabaseConfiguration config) {
+        this.connection = connection;
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.batchWait = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getBatchWait()));
+
+        this.lanes = new Lane[connection.getShardCount()];
+
+        for(int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new Lane(i, Math.max(this.batchSize, config.getRingSize()));
+        }
+
+        for(Lane lane : this.lanes) {
+            lane.writer.start();
+        }
+    }
+
+    /**
+    * Submits a transfer and waits until it has been committed.
+    * @param user The ID of the user sending the money.
+    * @param recipient The ID of the recipient of the money.
+    * @param description The description of the transaction.
+    * @param amount The amount that is being transferred, in cents.
+    * @return Whether the transfer was applied.
+    */
+    public boolean transfer(int user, int recipient, String description, long amount) throws SQLException {
+        if(!this.running) {
+            throw new SQLException("The transfer pipeline has been shut down.");
+        }
+
+        TransferRing ring = this.lanes[this.connection.shardOf(user)].ring;
+
+        // the batch is committed on another thread, so the wait is
+        // counted as this request's database time
+        long start = System.nanoTime();
+
+        try {
+            return ring.await(ring.publish(user, recipient, description, amount));
+        } finally {
+            Metrics.addDatabaseWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+    * Takes batches off a shard's ring and commits them until shut down.
+    * @param lane The shard to commit batches for.
+    */
+    private void run(Lane lane) {
+        List<Transfer> transfers = new ArrayList<Transfer>(this.batchSize);
+        Set<Integer> credited = new TreeSet<Integer>();
+
+        while(this.running || !lane.ring.isEmpty()) {
+            if(!lane.ring.drain(transfers, this.batchSize, IDLE_WAIT, this.batchWait)) {
+                continue;
+            }
+
+            // credits sent after this point need another signal, since the
+            // commit below may not see them
+            lane.ring.clearSignal();
+
+            try {
+                boolean[] results = this.connection.commitTransfers(lane.shard, transfers);
+
+                for(int i = 0; i < results.length; i++) {
+                    int shard = this.connection.shardOf(transfers.get(i).getRecipientID());
+
+                    if(results[i] && shard != lane.shard) {
+                        credited.add(shard);
+                    }
+                }
+
+                lane.ring.complete(results);
+            } catch (Exception e) {
+                lane.ring.fail(e);
+            }
+
+            // have the recipients' shards apply the credits in their outboxes
+            for(int shard : credited) {
+                this.lanes[shard].ring.signal();
+            }
+
+            transfers.clear();
+            credited.clear();
+        }
+
+        lane.ring.close();
+    }
+
+    /**
+    * Stops accepting transfers, commits the ones already published and
+    * waits for the writer threads to finish. Credits which have not been
+    * applied yet stay in their outboxes until the database is next opened.
+    */
+    public void close() throws InterruptedException {
+        this.running = false;
+
+        for(Lane lane : this.lanes) {
+            lane.writer.join();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package wondough;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* A bounded ring of transfers, published by any number of request threads
+* and applied in order by a single writer thread. The slots are allocated up
+* front and reused, and neither side takes a lock: a request thread claims a
+* slot by incrementing a counter, and each slot's sequence number tells both
+* sides whose turn it is. Slot n of the ring goes through four states on each
+* lap: free (sequence n), published (n + 1), applied (n + 2), and free again
+* for the next lap once the request thread has read its result.
+*/
+public class TransferRing {
+    /** How often a waiting thread checks again before it parks. */
+    private static final int SPINS = 100;
+
+    /** How long a request thread sleeps while the ring is full, in nanoseconds. */
+    private static final long FULL_WAIT = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /** How long a request thread sleeps before checking whether the writer has stopped, in nanoseconds. */
+    private static final long CLOSE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** One transfer and its result. */
+    private static class Slot {
+        /** Whose turn it is to use the slot, as described above. */
+        private volatile long sequence;
+
+        private int user;
+        private int recipient;
+        private String description;
+        private long amount;
+
+        /** The request thread waiting for the result. */
+        private Thread waiter;
+
+        private boolean result;
+        private Exception error;
+    }
+
+    /** The slots, of which there is a power of two, and at least four. */
+    private final Slot[] slots;
+
+    /** Turns a position into the index of its slot. */
+    private final int mask;
+
+    /** The position of the next slot to be claimed. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** The position of the next slot to be applied; only used by the writer. */
+    private long head;
+
+    /** The number of slots passed out by drain and not yet completed; only used by the writer. */
+    private int drained;
+
+    /** The writer thread. */
+    private volatile Thread writer;
+
+    /** Whether the writer is about to park, and needs to be woken. */
+    private volatile boolean sleeping;
+
+    /** Whether the writer has been asked to commit even without transfers. */
+    private final AtomicBoolean signalled = new AtomicBoolean();
+
+    /** Whether the writer has stopped. */
+    private volatile boolean closed;
+
+    /**
+    * Initialises a new ring.
+    * @param capacity The minimum number of transfers which can be waiting.
+    */
+    public TransferRing(int capacity) {
+        // with fewer than four slots, a slot which has been applied (n + 2)
+        // would already look free to the thread which claims it on the next
+        // lap (n + size), and could be overwritten before its result is read
+        int size = Integer.highestOneBit(Math.max(4, capacity) * 2 - 1);
+
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+
+        for(int i = 0; i < size; i++) {
+            this.slots[i] = new Slot();
+            this.slots[i].sequence = i;
+        }
+    }
+
+    /**
+    * Publishes a transfer, waiting for a free slot if the ring is full.
+    * @param user The ID of the user sending the money.
+    * @param recipient The ID of the recipient of the money.
+    * @param description The description of the transaction.
+    * @param amount The amount that is being transferred, in cents.
+    * @return The position to pass to await.
+    */
+    public long publish(int user, int recipient, String description, long amount) throws SQLException {
+        long position = this.tail.getAndIncrement();
+        Slot slot = this.slots[(int)position & this.mask];
+
+        // the thread which used the slot on the last lap may still be
+        // reading its result
+        while(slot.sequence != position) {
+            if(this.closed) {
+                throw new SQLException("The transfer pipeline has been shut down.");
+            }
+
+            LockSupport.parkNanos(this, FULL_WAIT);
+        }
+
+        slot.user = user;
+        slot.recipient = recipient;
+        slot.description = description;
+        slot.amount = amount;
+        slot.waiter = Thread.currentThread();
+        slot.sequence = position + 1;
+
+        if(this.sleeping) {
+            LockSupport.unpark(this.writer);
+        }
+
+        return position;
+    }
+
+    /**
+    * Waits for a published transfer to be applied, then frees its slot.
+    * @param position The position returned by publish.
+    * @return Whether the transfer was applied.
+    */
+    public boolean await(long position) throws SQLException {
+        Slot slot = this.slots[(int)position & this.mask];
+        boolean interrupted = false;
+
+        for(int spins = 0; slot.sequence != position + 2; spins++) {
+            if(this.closed && slot.sequence != position + 2) {
+                throw new SQLException("The transfer pipeline has been shut down.");
+            }
+
+            if(spins < SPINS) {
+                continue;
+            }
+
+            // the slot cannot be abandoned, since the writer will still
+            // fill it in; the interrupt is passed on once it has
+            LockSupport.parkNanos(this, CLOSE_WAIT);
+            interrupted |= Thread.interrupted();
+        }
+
+        boolean result = slot.result;
+        Exception error = slot.error;
+
+        slot.description = null;
+        slot.error = null;
+        slot.sequence = position + this.slots.length;
+
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if(error instanceof SQLException) {
+            throw (SQLException)error;
+        }
+
+        if(error != null) {
+            throw new SQLException(error);
+        }
+
+        return result;
+    }
+
+    /**
+    * Asks the writer to commit soon, even if no transfers arrive.
+    */
+    public void signal() {
+        if(!this.signalled.getAndSet(true) && this.sleeping) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    /**
+    * Clears a request made by signal; called by the writer before it commits.
+    * @return Whether the writer had been signalled.
+    */
+    public boolean clearSignal() {
+        return this.signalled.getAndSet(false);
+    }
+
+    /**
+    * Waits for the first transfer of a batch, then gathers more until the
+    * batch is full or the first transfer has waited long enough. Called by
+    * the writer, which must then pass the results to complete or fail.
+    * @param batch The list to add the transfers to.
+    * @param max The maximum number of transfers in a batch.
+    * @param timeout How long to wait for the first transfer, in nanoseconds.
+    * @param batchWait How long the first transfer waits for others, in nanoseconds.
+    * @return Whether there are transfers to apply or the writer was signalled.
+    */
+    public boolean drain(List<Transfer> batch, int max, long timeout, long batchWait) {
+        this.writer = Thread.currentThread();
+
+        if(!this.waitFor(1, System.nanoTime() + timeout, true)) {
+            return this.signalled.get();
+        }
+
+        long deadline = System.nanoTime() + batchWait;
+
+        while(true) {
+            // take whatever is already published without waiting
+            while(this.drained < max && this.isPublished(this.drained)) {
+                Slot slot = this.slots[(int)(this.head + this.drained) & this.mask];
+                batch.add(new Transfer(slot.user, slot.recipient, slot.description, slot.amount));
+                this.drained++;
+            }
+
+            if(this.drained >= max || !this.waitFor(this.drained + 1, deadline, false)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+    * Passes the results of the transfers returned by drain to the request
+    * threads waiting for them.
+    * @param results Whether each transfer was applied.
+    */
+    public void complete(boolean[] results) {
+        for(int i = 0; i < this.drained; i++) {
+            this.finish(i, results[i], null);
+        }
+
+        this.head += this.drained;
+        this.drained = 0;
+    }
+
+    /**
+    * Fails all the transfers returned by drain.
+    * @param error The cause of the failure.
+    */
+    public void fail(Exception error) {
+        for(int i = 0; i < this.drained; i++) {
+            this.finish(i, false, error);
+        }
+
+        this.head += this.drained;
+        this.drained = 0;
+    }
+
+    /**
+    * Determines whether no transfers have been claimed since the last batch.
+    */
+    public boolean isEmpty() {
+        return this.tail.get() == this.head + this.drained;
+    }
+
+    /**
+    * Marks the writer as stopped, so that request threads which are still
+    * waiting give up.
+    */
+    public void close() {
+        this.closed = true;
+
+        for(Slot slot : this.slots) {
+            Thread waiter = slot.waiter;
+
+            if(waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+    * Determines whether the transfer at an offset from the head has been published.
+    */
+    private boolean isPublished(int offset) {
+        long position = this.head + offset;
+        return this.slots[(int)position & this.mask].sequence == position + 1;
+    }
+
+    /**
+    * Waits until a number of transfers after the head have been published,
+    * or until a deadline passes.
+    * @param count The number of transfers to wait for.
+    * @param deadline The value of System.nanoTime at which to give up.
+    * @param signals Whether to stop waiting if the writer is signalled.
+    * @return Whether the transfers were published.
+    */
+    private boolean waitFor(int count, long deadline, boolean signals) {
+        for(int spins = 0; ; spins++) {
+            if(this.isPublished(count - 1)) {
+                return true;
+            }
+
+            if(signals && this.signalled.get()) {
+                return false;
+            }
+
+            long remaining = deadline - System.nanoTime();
+
+            if(remaining <= 0) {
+                return false;
+            }
+
+            if(spins < SPINS) {
+                continue;
+            }
+
+            // check again after announcing the park, so that a transfer
+            // published in between is not missed
+            this.sleeping = true;
+
+            if(!this.isPublished(count - 1) && !(signals && this.signalled.get())) {
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            this.sleeping = false;
+        }
+    }
+
+    /**
+    * Hands one result back to its request thread.
+    */
+    private void finish(int offset, boolean result, Exception error) {
+        long position = this.head + offset;
+        Slot slot = this.slots[(int)position & this.mask];
+        Thread waiter = slot.waiter;
+
+        slot.result = result;
+        slot.error = error;
+        slot.waiter = null;
+        slot.sequence = position + 2;
+
+        LockSupport.unpark(waiter);
+    }
+}
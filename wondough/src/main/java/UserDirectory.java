@@ -0,0 +1,98 @@
+package wondough;
+
+import java.util.concurrent.*;
+
+/**
+* Holds every user account in memory, by username, so that logins and
+* recipient lookups do not need the database. The directory is loaded when
+* the database is opened and written through whenever the database changes
+* an account. Each account is stored as an immutable record, so readers
+* never take a lock and never see an account half-updated.
+*/
+public class UserDirectory {
+    /** One user account, as stored in the users table. */
+    private static class Record {
+        private final int id;
+        private final String username;
+        private final String password;
+        private final String salt;
+        private final int iterations;
+        private final int keySize;
+
+        private Record(WondoughUser user) {
+            this.id = user.getID();
+            this.username = user.getUsername();
+            this.password = user.getHashedPassword();
+            this.salt = user.getSalt();
+            this.iterations = user.getIterations();
+            this.keySize = user.getKeySize();
+        }
+
+        private WondoughUser toUser() {
+            WondoughUser user = new WondoughUser(this.id, this.username);
+            user.setHashedPassword(this.password);
+            user.setSalt(this.salt);
+            user.setIterations(this.iterations);
+            user.setKeySize(this.keySize);
+            return user;
+        }
+    }
+
+    /** The accounts, by username. */
+    private final ConcurrentMap<String, Record> byName = new ConcurrentHashMap<String, Record>();
+
+    /**
+    * Looks up a user by their username.
+    * @param username The username to look up.
+    * @return A copy of the account, or null if it is not in the directory.
+    */
+    public WondoughUser get(String username) {
+        Record record = username == null ? null : this.byName.get(username);
+        return record == null ? null : record.toUser();
+    }
+
+    /**
+    * Looks up the unique ID of a user by their username.
+    * @param username The username to look up.
+    * @return The ID, or null if the user is not in the directory.
+    */
+    public Integer findID(String username) {
+        Record record = username == null ? null : this.byName.get(username);
+        return record == null ? null : record.id;
+    }
+
+    /**
+    * Adds or replaces an account once the database has been changed.
+    * @param user The account as it is now stored.
+    */
+    public void put(WondoughUser user) {
+        Record record = new Record(user);
+        this.byName.put(record.username, record);
+    }
+
+    /**
+    * Adds an account read from the database, unless the directory already
+    * has it. An account which was changed meanwhile is then not replaced by
+    * what was read before the change.
+    * @param user The account as it was read.
+    */
+    public void putIfAbsent(WondoughUser user) {
+        Record record = new Record(user);
+        this.byName.putIfAbsent(record.username, record);
+    }
+
+    /**
+    * Removes an account which has been deleted from the database.
+    * @param username The username of the account.
+    */
+    public void remove(String username) {
+        this.byName.remove(username);
+    }
+
+    /**
+    * Gets the number of accounts in the directory.
+    */
+    public int size() {
+        return this.byName.size();
+    }
+}
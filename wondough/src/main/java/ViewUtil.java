@@ -9,11 +9,41 @@ import static wondough.SessionUtil.*;
 
 public class ViewUtil {
 
+    // Set this system property to true to re-read templates on every request
+    // while working on them, instead of parsing each one only once
+    public static final String RELOAD_PROPERTY = "wondough.templates.reload";
+
+    // The templates which are parsed when the program starts
+    private static final String[] TEMPLATES = {
+        "/velocity/layout.vm",
+        "/velocity/auth.vm"
+    };
+
+    // Velocity engines are thread-safe once initialised, so one is shared
+    private static final VelocityEngine velocityEngine =
+        strictVelocityEngine(Boolean.getBoolean(RELOAD_PROPERTY));
+
+    private static final VelocityTemplateEngine templateEngine =
+        new VelocityTemplateEngine(velocityEngine);
+
     // Renders a template given a model and a request
     public static String render(Request request, Map<String, Object> model, String templatePath) {
         model.put("currentUser", getSessionCurrentUser(request));
 
-        return strictVelocityEngine().render(new ModelAndView(model, templatePath));
+        return render(model, templatePath);
+    }
+
+    // Renders a template given a complete model
+    public static String render(Map<String, Object> model, String templatePath) {
+        return templateEngine.render(new ModelAndView(model, templatePath));
+    }
+
+    // Parses all templates into the template cache, so that the first
+    // requests do not have to
+    public static void preloadTemplates() {
+        for (String template : TEMPLATES) {
+            velocityEngine.getTemplate(template);
+        }
     }
 
     public static Route notAcceptable = (Request request, Response response) -> {
@@ -26,11 +56,19 @@ public class ViewUtil {
         return render(request, new HashMap<>(), "/velocity/404.vm");
     };
 
-    private static VelocityTemplateEngine strictVelocityEngine() {
+    private static VelocityEngine strictVelocityEngine(boolean reload) {
         VelocityEngine configuredEngine = new VelocityEngine();
         configuredEngine.setProperty("runtime.references.strict", true);
         configuredEngine.setProperty("resource.loader", "class");
         configuredEngine.setProperty("class.resource.loader.class", "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-        return new VelocityTemplateEngine(configuredEngine);
+
+        // the classpath loader cannot tell whether a template has changed,
+        // so in development templates are simply not cached
+        configuredEngine.setProperty("class.resource.loader.cache", String.valueOf(!reload));
+        configuredEngine.setProperty("class.resource.loader.modificationCheckInterval", "0");
+        configuredEngine.setProperty("velocimacro.library.autoreload", String.valueOf(reload));
+
+        configuredEngine.init();
+        return configuredEngine;
     }
 }
@@ -0,0 +1,116 @@
+package wondough;
+
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.*;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import spark.Service;
+import spark.Spark;
+import spark.embeddedserver.*;
+import spark.embeddedserver.jetty.*;
+import spark.http.matching.MatcherFilter;
+import spark.route.Routes;
+import spark.staticfiles.StaticFilesConfiguration;
+
+/**
+* Builds Spark's embedded Jetty server so that each request is handled on a
+* new virtual thread. Jetty's own pool of platform threads still accepts
+* connections and parses requests, but hands each one off as soon as it
+* arrives, so a request which blocks does not hold up one of Jetty's
+* threads. Virtual threads need Java 21 or later, and are looked up when the
+* server is installed so that the code still builds for Java 8.
+*/
+public class VirtualThreadServerFactory implements EmbeddedServerFactory {
+    /** The name the factory is registered with Spark under. */
+    private static final String IDENTIFIER = "wondough-virtual-threads";
+
+    /** Passes requests from Jetty's threads to virtual threads. */
+    private static class Dispatcher extends HandlerWrapper {
+        private ExecutorService executor;
+
+        private Dispatcher(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+            HttpServletResponse response) throws IOException, ServletException {
+            // the response is only sent once the virtual thread completes it
+            AsyncContext async = request.startAsync();
+            async.setTimeout(0);
+
+            this.executor.execute(() -> {
+                try {
+                    super.handle(target, baseRequest, request, response);
+                } catch (Exception e) {
+                    try {
+                        if(!response.isCommitted()) {
+                            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        }
+                    } catch (IOException ignored) {
+                        // the client has gone away
+                    }
+                } finally {
+                    async.complete();
+                }
+            });
+        }
+    }
+
+    /** Starts a new virtual thread for each request. */
+    private ExecutorService executor;
+
+    private VirtualThreadServerFactory(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+    * Creates the server in the same way as Spark's own factory, with the
+    * dispatcher in front of Spark's handler.
+    */
+    @Override
+    public EmbeddedServer create(Routes routes, StaticFilesConfiguration staticFiles, boolean hasMultipleHandler) {
+        MatcherFilter filter = new MatcherFilter(routes, staticFiles, false, hasMultipleHandler);
+        filter.init(null);
+
+        Dispatcher dispatcher = new Dispatcher(this.executor);
+        dispatcher.setHandler(new JettyHandler(filter));
+
+        return new EmbeddedJettyServer(dispatcher);
+    }
+
+    /**
+    * Makes Spark handle requests on virtual threads. Must be called before
+    * the first route is mapped, since that starts the server.
+    * @return Whether virtual threads are available in this JVM.
+    */
+    public static boolean install() throws ReflectiveOperationException {
+        ExecutorService executor;
+
+        try {
+            executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+
+        EmbeddedServers.add(IDENTIFIER, new VirtualThreadServerFactory(executor));
+
+        // Spark 2.5 always registers its own factory as the default just
+        // before creating the server, and has no public way to choose
+        // another, so the choice is made on its static instance directly
+        Method getInstance = Spark.class.getDeclaredMethod("getInstance");
+        getInstance.setAccessible(true);
+
+        Field identifier = Service.class.getDeclaredField("embeddedServerIdentifier");
+        identifier.setAccessible(true);
+        identifier.set(getInstance.invoke(null), IDENTIFIER);
+
+        return true;
+    }
+}
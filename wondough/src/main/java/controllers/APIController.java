@@ -3,6 +3,8 @@ package wondough;
 import java.util.*;
 import java.sql.SQLException;
 
+import com.google.gson.JsonParseException;
+
 import static spark.Spark.*;
 import spark.*;
 import wondough.*;
@@ -13,10 +15,87 @@ import static wondough.SessionUtil.*;
 * @author The Intern
 */
 public class APIController {
-    /** Lists all transactions for a user. */
+    /** The number of transactions returned when no limit is requested. */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    /** The largest number of transactions that can be requested at once. */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    /** The largest number of transfers that can be made in one batch. */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    /** Renders responses which are not streamed. */
+    private static final JSONTransformer json = new JSONTransformer();
+
+    /**
+    * Lists a page of transactions for a user, newest first. The page size can
+    * be set with limit; older pages are requested by passing the nextCursor
+    * of the previous page as before. The page is written straight to the
+    * response, rather than being rendered to a string first.
+    */
     public static Route getTransactions = (Request request, Response response) -> {
         // allow requests from anywhere
         response.header("Access-Control-Allow-Origin", "*");
+        response.type("application/json");
+
+        // retrieve the access token from the request
+        String token = request.queryParams("token");
+
+        try {
+            Integer user = Program.getInstance().getDbConnection().isValidAccessToken(token);
+
+            if(user == null) {
+                return json.render("Not a valid access token!");
+            }
+
+            Integer before = null;
+            int limit = DEFAULT_PAGE_SIZE;
+
+            try {
+                if(request.queryParams("before") != null) {
+                    before = Integer.parseInt(request.queryParams("before"));
+                }
+
+                if(request.queryParams("limit") != null) {
+                    limit = Integer.parseInt(request.queryParams("limit"));
+                }
+            }
+            catch(NumberFormatException ex) {
+                halt(400, "Not a valid cursor or limit!");
+            }
+
+            if(limit < 1 || limit > MAX_PAGE_SIZE) {
+                halt(400, "Not a valid cursor or limit!");
+            }
+
+            // read the whole page before writing any of it, so that a slow
+            // client does not hold on to a database connection, and an error
+            // is never written after part of the page
+            Transactions page = Program.getInstance().getDbConnection().getTransactions(user, before, limit);
+
+            // write the page straight to the response; the response is then
+            // committed, so Spark does not write the empty body returned here
+            JSONStreamer out = new JSONStreamer(response.raw().getOutputStream());
+            out.write(page);
+            out.flush();
+
+            return "";
+        }
+        catch(SQLException ex) {
+            return json.render(ex.toString());
+        }
+    };
+
+    /**
+    * Gets the current balance of a user's account. The balance is read as the
+    * account's last checkpointed snapshot plus the transactions written since,
+    * so only the short tail after the checkpoint is summed however long the
+    * account's history is.
+    */
+    public static Route getBalance = (Request request, Response response) -> {
+        // allow requests from anywhere
+        response.header("Access-Control-Allow-Origin", "*");
+        response.type("application/json");
 
         // retrieve the access token from the request
         String token = request.queryParams("token");
@@ -28,7 +107,7 @@ public class APIController {
                 return "Not a valid access token!";
             }
 
-            return Program.getInstance().getDbConnection().getTransactions(user);
+            return new Balance(Program.getInstance().getDbConnection().getBalance(user));
         }
         catch(SQLException ex) {
             return ex.toString();
@@ -56,8 +135,20 @@ public class APIController {
                 halt(400, "Not a valid recipient!");
             }
 
-            return Program.getInstance().getDbConnection().createTransaction(
-                user, recipient, request.queryParams("description"), Float.parseFloat(request.queryParams("amount")));
+            // amounts are stored in cents, so anything finer is rejected
+            // rather than rounded
+            long amount = 0;
+
+            try {
+                amount = Money.parse(request.queryParams("amount"));
+            } catch(NumberFormatException ex) {
+                halt(400, "Not a valid amount!");
+            }
+
+            // the transfer is committed together with any others that
+            // arrive at the same time
+            return Program.getInstance().getTransferPipeline().transfer(
+                user, recipient, request.queryParams("description"), amount);
 
             // create transaction
         }
@@ -65,4 +156,93 @@ public class APIController {
             return ex.toString();
         }
     };
+
+    /**
+    * Transfers money from the user's account to several others at once. The
+    * transfers are sent as a JSON array of recipient, amount and description
+    * in the request body. All recipients are looked up with one query and
+    * the transfers are committed in one database transaction on the user's
+    * shard, bypassing the transfer pipeline so that the batch is never
+    * split; credits to other shards are applied straight after. Each transfer is
+    * checked against the balance left by the ones before it, and the
+    * entries are returned with whether they were applied.
+    */
+    public static Route postTransactionBatch = (Request request, Response response) -> {
+        // allow requests from anywhere
+        response.header("Access-Control-Allow-Origin", "*");
+
+        // retrieve the access token from the request
+        String token = request.queryParams("token");
+
+        try {
+            DbConnection db = Program.getInstance().getDbConnection();
+            Integer user = db.isValidAccessToken(token);
+
+            if(user == null) {
+                return "Not a valid access token!";
+            }
+
+            BatchEntry[] entries = null;
+
+            try {
+                entries = json.parse(request.body(), BatchEntry[].class);
+            } catch(JsonParseException | NumberFormatException ex) {
+                halt(400, "Not a valid batch!");
+            }
+
+            if(entries == null || entries.length == 0 || entries.length > MAX_BATCH_SIZE) {
+                halt(400, "Not a valid batch!");
+            }
+
+            List<String> names = new ArrayList<String>();
+
+            for(BatchEntry entry : entries) {
+                if(entry == null) {
+                    halt(400, "Not a valid batch!");
+                }
+
+                names.add(entry.getRecipient());
+            }
+
+            Map<String, Integer> recipients = db.findUsersByName(names);
+
+            // only entries with a known recipient and a positive amount are
+            // sent to the database; the rest are rejected here
+            List<Transfer> transfers = new ArrayList<Transfer>();
+            List<BatchEntry> pending = new ArrayList<BatchEntry>();
+
+            for(BatchEntry entry : entries) {
+                Integer recipient = recipients.get(entry.getRecipient());
+
+                if(recipient == null) {
+                    entry.rejected("Not a valid recipient!");
+                }
+                else if(entry.getAmount() < 0) {
+                    entry.rejected("Not a valid amount!");
+                }
+                else {
+                    transfers.add(new Transfer(user, recipient, entry.getDescription(), entry.getAmount()));
+                    pending.add(entry);
+                }
+            }
+
+            if(!transfers.isEmpty()) {
+                boolean[] results = db.createTransactions(transfers);
+
+                for(int i = 0; i < results.length; i++) {
+                    if(results[i]) {
+                        pending.get(i).applied();
+                    }
+                    else {
+                        pending.get(i).rejected("Insufficient funds!");
+                    }
+                }
+            }
+
+            return entries;
+        }
+        catch(SQLException ex) {
+            return ex.toString();
+        }
+    };
 }
@@ -4,17 +4,22 @@ import java.util.*;
 import java.net.*;
 import java.io.*;
 import java.sql.SQLException;
-
-import javax.json.Json;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.*;
 
 import spark.*;
 import wondough.*;
 import static wondough.SessionUtil.*;
 
 public class AuthController {
+    /** How many seconds clients should wait when logins are overloaded. */
+    private static final String RETRY_AFTER = "1";
+
+    /**
+    * How long to wait for the captcha check beyond its own timeout, in
+    * milliseconds, in case the check is never completed at all.
+    */
+    private static final long CAPTCHA_MARGIN = 1000;
+
     /** Serve the auth page (GET request) */
     public static Route serveAuthPage = (Request request, Response response) -> {
         Map<String, Object> model = new HashMap<>();
@@ -70,71 +75,69 @@ public class AuthController {
 			return ViewUtil.render(request, model, "/velocity/recapauth.vm");
 		}
 
-		try {
-			// create new http post request
-			URL url = new URL("https://www.google.com/recaptcha/api/siteverify");
-			HttpsURLConnection con = (HttpsURLConnection) url.openConnection();
-			con.setRequestMethod("POST");
-
-			// send secret key and captcha response to google captch
-			con.setDoOutput(true);
-			DataOutputStream out = new DataOutputStream(con.getOutputStream());
-			out.writeBytes(URLEncoder.encode("secret") + "=" + URLEncoder.encode("6Le9l38UAAAAAFStV195bY29PLs8LMI2dTOwezGP") + "&" + URLEncoder.encode("response") + "=" + captchaResponse);
-			out.flush();
-			out.close();
-
-			// check response code is OK
-			int status = con.getResponseCode();
-			if (status != 200) {
-				return null;
-			}
+		// start checking the response with the configured verifier, and
+		// look the user up while the captcha service answers
+		CompletableFuture<Boolean> captcha = Program.getInstance().getCaptchaVerifier().verify(captchaResponse);
 
-			// read the input
-			BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-			String inputLine;
-			StringBuffer content = new StringBuffer();
-			while ((inputLine = in.readLine()) != null) {
-				content.append(inputLine);
-			}
-			in.close();
-			con.disconnect();
+		// try to find the user in the database
+        WondoughUser user = null;
+        SQLException lookupError = null;
 
-			// convert input to json file
-			JsonReader jsonReader = Json.createReader(new StringReader(content.toString()));
-			JsonObject jsonObject = jsonReader.readObject();
-			jsonReader.close();
+        try {
+            user = Program.getInstance().getDbConnection().getUser(username);
+        } catch(SQLException ex) {
+            lookupError = ex;
+        }
+
+		// the captcha must pass before anything about the account is
+		// revealed or any time is spent hashing the password
+		try {
+			long timeout = Program.getInstance().getSecurityConfiguration().getCaptchaTimeout() + CAPTCHA_MARGIN;
 
 			// if not successful, return an error
-			if (jsonObject.getBoolean("success") != true) {
+			if (!captcha.get(timeout, TimeUnit.MILLISECONDS)) {
 				model.put("error", "Please fill out the reCAPTCHA");
 				return ViewUtil.render(request, model, "/velocity/auth.vm");
 			}
 
-		} catch (Exception e) {
-			model.put("error", e.toString());
+		} catch (ExecutionException e) {
+			model.put("error", "Couldn't check the reCAPTCHA, please try again");
 			return ViewUtil.render(request, model, "/velocity/auth.vm");
+		} catch (TimeoutException e) {
+			// the check never finished, so the login thread is not held
+			// any longer than the check could take
+			captcha.cancel(false);
+			response.status(503);
+			response.header("Retry-After", RETRY_AFTER);
+			return "Couldn't check the reCAPTCHA at the moment, please try again shortly.";
 		}
 
-		// try to find the user in the database
-        WondoughUser user = null;
+        if(lookupError != null) {
+            model.put("error", lookupError.toString());
+            return ViewUtil.render(request, model, "/velocity/auth.vm");
+        }
 
-        try {
-            user = Program.getInstance().getDbConnection().getUser(username);
-            if(user == null) {
-                model.put("error", "Incorrect Username or Password");
-                return ViewUtil.render(request, model, "/velocity/auth.vm");
-        	}
-        } catch(SQLException ex) {
-            model.put("error", ex.toString());
+        if(user == null) {
+            model.put("error", "Incorrect Username or Password");
             return ViewUtil.render(request, model, "/velocity/auth.vm");
         }
 
 		// retrieve global security configuration
 		SecurityConfiguration config = Program.getInstance().getSecurityConfiguration();
+		PasswordHasher hasher = Program.getInstance().getPasswordHasher();
 
         // hash the plain text password supplied by the client using the
-        // security configuration for this particular user
-        String hashedPassword = config.pbkdf2(password, user.getSalt(), user.getIterations(), user.getKeySize());
+        // security configuration for this particular user; this runs on the
+        // hashing threads, which turn work away once their queue is full
+        String hashedPassword = null;
+
+        try {
+            hashedPassword = hasher.pbkdf2(password, user.getSalt(), user.getIterations(), user.getKeySize());
+        } catch(RejectedExecutionException ex) {
+            response.status(503);
+            response.header("Retry-After", RETRY_AFTER);
+            return "Too many logins at the moment, please try again shortly.";
+        }
 
         // check that the hashed passwords match
         if(!user.getHashedPassword().equals(hashedPassword)) {
@@ -146,7 +149,11 @@ public class AuthController {
         // if not, re-hash the password
         if(user.getIterations() != config.getIterations() ||
             user.getKeySize() != config.getKeySize()) {
-				Program.getInstance().getDbConnection().updateUser(user.getUsername(), config.getIterations(), config.getKeySize(), config.pbkdf2(password, user.getSalt()));
+			try {
+				Program.getInstance().getDbConnection().updateUser(user.getUsername(), config.getIterations(), config.getKeySize(), hasher.pbkdf2(password, user.getSalt()));
+			} catch(RejectedExecutionException ex) {
+				// the password is upgraded on a later login instead
+			}
         }
 
         // authorise an app
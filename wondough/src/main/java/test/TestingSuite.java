@@ -26,6 +26,8 @@ public class TestingSuite {
 		this.vulnerability8(hacker);
 		this.vulnerability9();
 		this.vulnerability10();
+		this.tokenCache();
+		this.transferRing();
 
 		// clean up after tests run
 		try {
@@ -86,18 +88,29 @@ public class TestingSuite {
 		diez.test();
 	}
 
+	public void tokenCache() {
+		TokenCacheTest cache = new TokenCacheTest();
+		cache.test();
+	}
+
+	public void transferRing() {
+		TransferRingTest ring = new TransferRingTest();
+		ring.test();
+	}
+
 	// clean up data left over
 	private void cleanUp() throws SQLException {
 		String url = "jdbc:sqlite:" + "wondough.db";
 		Connection connection = DriverManager.getConnection(url);
 
+		// revoke through the database connection, so that the tokens are
+		// dropped from its cache as well
+		DbConnection db = Program.getInstance().getDbConnection();
+		db.revokeApps(-1);
+
 		Statement stmt = null;
-		String query = "DELETE FROM authorised_apps WHERE user=-1";
+		String query = "DELETE FROM users WHERE username='hacker'";
 		try {
-            stmt = connection.createStatement();
-            stmt.executeUpdate(query);
-
-			query = "DELETE FROM users WHERE username='hacker'";
 			stmt = connection.createStatement();
 			stmt.executeUpdate(query);
 
@@ -126,5 +139,21 @@ public class TestingSuite {
         } finally {
             if (stmt != null) { stmt.close(); }
         }
+
+		// the deleted users must not be found in the user directory either
+		for (String username : new String[] { "hacker", "sqlHacker", "victim", "user1", "user2" }) {
+			db.forgetUser(username);
+		}
+
+		// the other shards of the ledger have their own transactions
+		DatabaseConfiguration database = Program.getInstance().getDatabaseConfiguration();
+		for (int i = 1; i < database.getShards(); i++) {
+			try (Connection shard = DriverManager.getConnection("jdbc:sqlite:" + database.getShardFilename(i));
+				Statement shardStmt = shard.createStatement()) {
+				shardStmt.executeUpdate("DELETE FROM transactions WHERE description='test'");
+			} catch (SQLException e) {
+				System.out.println("Cleanup failed" + e.toString());
+			}
+		}
 	}
 }
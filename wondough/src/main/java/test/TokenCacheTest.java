@@ -0,0 +1,111 @@
+package wondough;
+
+public class TokenCacheTest {
+
+	// run tests for the access token cache
+	public void test() {
+		String test1 = this.testExpiredTokensAreMissed();
+		String test2 = this.testLeastRecentlyUsedIsEvicted();
+		String test3 = this.testEvictionsAreCounted();
+		String test4 = this.testStalePutIsIgnored();
+
+		System.out.println("Token cache: \t\tTest 1 " + test1);
+		System.out.println("\t\t\tTest 2 " + test2);
+		System.out.println("\t\t\tTest 3 " + test3);
+		System.out.println("\t\t\tTest 4 " + test4);
+		System.out.println();
+	}
+
+	// test that a token is only found until its entry expires
+	private String testExpiredTokensAreMissed() {
+		TokenCache live = new TokenCache(16, 60);
+		live.put("token", 1, live.generation());
+
+		// a time to live of zero expires entries as soon as they are added
+		TokenCache expired = new TokenCache(16, 0);
+		expired.put("token", 1, expired.generation());
+
+		Integer found = live.get("token");
+		if (found == null || found != 1) return "failed";
+		if (expired.get("token") != null) return "failed";
+		if (expired.size() != 0) return "failed";
+		return "passed";
+	}
+
+	// test that a full segment evicts the token which was used longest ago
+	private String testLeastRecentlyUsedIsEvicted() {
+		// with one token per segment, adding a token evicts another only if
+		// they share a segment
+		String[] tokens = this.sameSegment(3);
+		if (tokens == null) return "failed";
+
+		// two tokens per segment
+		TokenCache cache = new TokenCache(32, 60);
+		cache.put(tokens[0], 0, cache.generation());
+		cache.put(tokens[1], 1, cache.generation());
+
+		// use the first token again, so that the second is used longest ago
+		cache.get(tokens[0]);
+		cache.put(tokens[2], 2, cache.generation());
+
+		if (cache.get(tokens[0]) == null) return "failed";
+		if (cache.get(tokens[1]) != null) return "failed";
+		if (cache.get(tokens[2]) == null) return "failed";
+		if (cache.getEvictions() != 1) return "failed";
+		return "passed";
+	}
+
+	// test that every token pushed out of a full cache is counted
+	private String testEvictionsAreCounted() {
+		TokenCache cache = new TokenCache(16, 60);
+
+		for (int i = 0; i < 1000; i++) {
+			cache.put("token" + i, i, cache.generation());
+		}
+
+		if (cache.size() > 16) return "failed";
+		if (cache.getEvictions() != 1000 - cache.size()) return "failed";
+		return "passed";
+	}
+
+	// test that a token looked up before its user's tokens were revoked is
+	// not cached afterwards
+	private String testStalePutIsIgnored() {
+		TokenCache cache = new TokenCache(16, 60);
+
+		// the lookup starts, then the user's apps are revoked before it
+		// finishes
+		long generation = cache.generation();
+		cache.invalidateUser(5);
+		cache.put("revoked", 5, generation);
+
+		if (cache.get("revoked") != null) return "failed";
+
+		// a lookup which starts after the revocation is cached as usual
+		cache.put("current", 5, cache.generation());
+		if (cache.get("current") == null) return "failed";
+
+		cache.invalidateUser(5);
+		if (cache.get("current") != null) return "failed";
+		return "passed";
+	}
+
+	// find tokens which are stored in the same segment of the cache
+	private String[] sameSegment(int count) {
+		String[] tokens = new String[count];
+		tokens[0] = "token0";
+		int found = 1;
+
+		for (int i = 1; i < 100000 && found < count; i++) {
+			TokenCache probe = new TokenCache(16, 60);
+			probe.put(tokens[0], 0, probe.generation());
+			probe.put("token" + i, i, probe.generation());
+
+			if (probe.getEvictions() == 1) {
+				tokens[found++] = "token" + i;
+			}
+		}
+
+		return found == count ? tokens : null;
+	}
+}
@@ -0,0 +1,115 @@
+package wondough;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class TransferRingTest {
+
+	// the number of threads publishing transfers at once
+	private static final int PUBLISHERS = 16;
+
+	// the number of transfers each thread publishes
+	private static final int TRANSFERS = 2000;
+
+	// run tests for the ring which passes transfers to each shard's writer
+	public void test() {
+		String test1 = this.testTinyRingUnderContention(1, 1);
+		String test2 = this.testTinyRingUnderContention(2, 2);
+
+		System.out.println("Transfer ring: \t\tTest 1 " + test1);
+		System.out.println("\t\t\tTest 2 " + test2);
+		System.out.println();
+	}
+
+	// test that every publisher gets the result of its own transfer, and
+	// that every transfer is applied exactly once, when many threads share
+	// a ring with only a few slots
+	private String testTinyRingUnderContention(int capacity, int batchSize) {
+		TransferRing ring = new TransferRing(capacity);
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicBoolean applied = new AtomicBoolean(true);
+		int[] seen = new int[PUBLISHERS * TRANSFERS];
+
+		// the writer answers each transfer with a bit of its amount, which
+		// is unique to it
+		Thread writer = new Thread(() -> {
+			List<Transfer> batch = new ArrayList<Transfer>();
+
+			while (running.get()) {
+				if (!ring.drain(batch, batchSize, TimeUnit.MILLISECONDS.toNanos(10), 0)) {
+					continue;
+				}
+
+				boolean[] results = new boolean[batch.size()];
+
+				for (int i = 0; i < results.length; i++) {
+					int amount = (int)batch.get(i).getAmount();
+					if (seen[amount]++ != 0) applied.set(false);
+					results[i] = expected(amount);
+				}
+
+				ring.complete(results);
+				batch.clear();
+			}
+
+			ring.close();
+		});
+		writer.start();
+
+		ExecutorService publishers = Executors.newFixedThreadPool(PUBLISHERS);
+		List<Future<Boolean>> outcomes = new ArrayList<Future<Boolean>>();
+
+		for (int p = 0; p < PUBLISHERS; p++) {
+			final int publisher = p;
+			outcomes.add(publishers.submit(() -> {
+				boolean correct = true;
+
+				for (int i = 0; i < TRANSFERS; i++) {
+					int amount = publisher * TRANSFERS + i;
+					long position = ring.publish(publisher, 0, "test", amount);
+					correct &= ring.await(position) == expected(amount);
+				}
+
+				return correct;
+			}));
+		}
+
+		String rt = "passed";
+
+		try {
+			for (Future<Boolean> outcome : outcomes) {
+				if (!outcome.get(30, TimeUnit.SECONDS)) rt = "failed";
+			}
+		} catch (TimeoutException e) {
+			rt = "failed (a publisher was never woken)";
+		} catch (Exception e) {
+			rt = "failed" + e.toString();
+		} finally {
+			// stopping the writer closes the ring, which releases any
+			// publisher still waiting
+			running.set(false);
+			publishers.shutdownNow();
+		}
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (!rt.equals("passed")) return rt;
+		if (!applied.get()) return "failed";
+
+		for (int count : seen) {
+			if (count != 1) return "failed";
+		}
+
+		return rt;
+	}
+
+	// the result the writer gives a transfer
+	private static boolean expected(int amount) {
+		return ((amount * 0x9E3779B1) >>> 31) == 1;
+	}
+}
@@ -22,20 +22,22 @@ public class Vulnerability8 {
 
 	// initialises tests for vulnerability 8
 	private void initialiseTests(WondoughUser hacker) throws SQLException {
-		// get the database
-		String url = "jdbc:sqlite:" + "wondough.db";
+		// get the shard of the database which holds the hacker's transactions
+		DatabaseConfiguration database = Program.getInstance().getDatabaseConfiguration();
+		int shard = Program.getInstance().getDbConnection().shardOf(hacker.getID());
+		String url = "jdbc:sqlite:" + database.getShardFilename(shard);
         Connection connection = DriverManager.getConnection(url);
 
 		// prepare statement
 		PreparedStatement creditStmt = null;
-        String creditQuery = "INSERT INTO transactions (uid,value,description) VALUES (?,?,?)";
+        String creditQuery = "INSERT INTO transactions (uid,cents,description) VALUES (?,?,?)";
 
 		try {
 			// add £100 to the account for testing
             creditStmt = connection.prepareStatement(creditQuery);
 
             creditStmt.setInt(1, hacker.getID());
-            creditStmt.setFloat(2, (float) 100.0);
+            creditStmt.setLong(2, 10000);
             creditStmt.setString(3, "test");
 
             creditStmt.executeUpdate();
@@ -53,7 +55,7 @@ public class Vulnerability8 {
 		DbConnection db = Program.getInstance().getDbConnection();
 		try {
 			// attempt to transfer more money than available
-			if (db.createTransaction(hacker.getID(), 1, "test", (float) 101.0) == true) {
+			if (db.createTransaction(hacker.getID(), 1, "test", 10100) == true) {
 				return "failed"; // if transaction occurs, fail test
 			} else {
 				return "passed"; // else pass test
@@ -69,7 +71,7 @@ public class Vulnerability8 {
 		DbConnection db = Program.getInstance().getDbConnection();
 		try {
 			// attempt to transfer all the money in the account
-			if (db.createTransaction(hacker.getID(), 1, "test", (float) 100.0) == true) {
+			if (db.createTransaction(hacker.getID(), 1, "test", 10000) == true) {
 				return "passed"; // if transaction occurs, pass test
 			} else {
 				return "failed"; // else fail test